@@ -3,14 +3,21 @@ package com.hmdp.config;
  * config: 存放配置类，通常用于定义Spring Bean、配置文件等。
  */
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.ReadinessInterceptor;
+import com.hmdp.utils.RedisCircuitBreaker;
 import com.hmdp.utils.RefreshTokenInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.ApplicationAvailability;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.Set;
+
 /**
  * 是一个 Spring Boot 应用中的配置类，主要用于设置 Spring MVC 的拦截器。我们逐步解析其中的关键部分：
  */
@@ -24,6 +31,24 @@ public class MvcConfig implements WebMvcConfigurer {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private ApplicationAvailability applicationAvailability;
+
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 可以访问运维接口（秒杀死信查看、重放和统计）的用户 id，逗号分隔
+     */
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminUserIds;
+
+    /**
+     * Redis 熔断时本地保存的登录信息最多使用多久（秒），从最后一次读到 Redis 开始计算
+     */
+    @Value("${hmdp.redis-breaker.session-max-stale-seconds:300}")
+    private long sessionMaxStaleSeconds;
+
     /**
      * @Autowired：自动注入 Spring 容器中的 StringRedisTemplate 实例，用于在拦截器中操作 Redis 数据。
      * 注入 StringRedisTemplate
@@ -33,9 +58,14 @@ public class MvcConfig implements WebMvcConfigurer {
     public void addInterceptors(InterceptorRegistry registry) {
         // addInterceptors 方法：用于注册自定义的拦截器。
         // registry.addInterceptor(...)：向 Spring MVC 的拦截器链中添加新的拦截器。
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).order(0);
+        registry.addInterceptor(new ReadinessInterceptor(applicationAvailability)).order(-1);
+        //        ReadinessInterceptor
+        //        作用：启动预热完成、应用进入就绪状态之前直接返回 503，order(-1) 保证它排在最前面。
+        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate, redisCircuitBreaker, sessionMaxStaleSeconds)).order(0);
         //        3.1. RefreshTokenInterceptor
         //        作用：通过 stringRedisTemplate 与 Redis 交互，可能用于刷新用户的令牌（Token），以保持用户的登录状态。
+        //        Redis 访问经过 redisCircuitBreaker，Redis 变慢时不会让每个请求都等到命令超时，
+        //        熔断期间本地保存的登录信息最多使用 session-max-stale-seconds。
         //        order(0)：设置该拦截器的执行顺序为 0，数值越小，优先级越高，意味着它会最先执行。
         registry.addInterceptor(new LoginInterceptor()).
                 //     3.2. LoginInterceptor
@@ -58,5 +88,9 @@ public class MvcConfig implements WebMvcConfigurer {
          * /voucher/**：优惠券相关接口
          * order(1)：设置该拦截器的执行顺序为 1，优先级低于 RefreshTokenInterceptor。
          */
+        registry.addInterceptor(new AdminInterceptor(adminUserIds))
+                .addPathPatterns("/voucher-order/dead-letter", "/voucher-order/dead-letter/**", "/shop-type/refresh").order(2);
+        //        3.3. AdminInterceptor
+        //        作用：死信查看、重放和统计接口以及商铺类型刷新接口只允许 hmdp.admin.user-ids 中的用户访问，排在 LoginInterceptor 之后。
     }
 }
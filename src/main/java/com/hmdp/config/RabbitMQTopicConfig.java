@@ -1,12 +1,23 @@
 package com.hmdp.config;
 
+import com.hmdp.rebbitmq.SeckillOrderMessageConverter;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Spring Boot 配置类，旨在配置 RabbitMQ 的主题交换机（Topic Exchange）、队列（Queue）以及它们之间的绑定关系。
  * SpringBoot动态创建绑定rabbitMq队列
@@ -24,6 +35,48 @@ public class RabbitMQTopicConfig {
     public static final String EXCHANGE = "seckillExchange";
     public static final String ROUTINGKEY = "seckill.#";
 
+    /**
+     * 按优惠券分区的队列：
+     * PARTITION_EXCHANGE：分区使用的直连交换机，不能复用 seckillExchange，否则 seckill.# 会把分区消息再路由一份到旧队列。
+     * PARTITION_QUEUE_PREFIX：分区队列 seckillQueue.{i}。
+     * PARTITION_ROUTINGKEY_PREFIX：分区路由键 seckill.partition.{i}。
+     * 旧的 seckillQueue 仍然声明并监听，升级时其中尚未消费的消息可以继续被处理完。
+     */
+    public static final String PARTITION_EXCHANGE = "seckillPartitionExchange";
+    public static final String PARTITION_QUEUE_PREFIX = "seckillQueue.";
+    public static final String PARTITION_ROUTINGKEY_PREFIX = "seckill.partition.";
+
+    /**
+     * 当前分区数，发送方按它计算路由键
+     */
+    @Value("${hmdp.seckill.partitions:4}")
+    private int partitions;
+
+    /**
+     * 调整分区数之前的分区数：缩小分区数时设置为旧值，多出来的队列继续声明和消费，直到其中的消息处理完。
+     * 排空期间同一张优惠券的消息可能同时在旧分区（floorMod(id, drain-partitions)）和新分区（floorMod(id, partitions)）中，
+     * 两个分区各有一个活动消费者，这张券的订单不再串行处理：一人一单和库存仍由唯一索引和 stock > 0 的条件更新保证，
+     * 只是分区前的行锁争抢会在排空期间重新出现。应在没有进行中的秒杀时调整分区数，旧分区排空后把它改回 0
+     */
+    @Value("${hmdp.seckill.drain-partitions:0}")
+    private int drainPartitions;
+
+    /**
+     * 重试与死信：
+     * RETRY_EXCHANGE_PREFIX / RETRY_QUEUE_PREFIX：各级重试的交换机 seckillRetryExchange.{level} 和延时队列 seckillQueue.retry.{level}。
+     * DEAD_LETTER_EXCHANGE / DEAD_LETTER_QUEUE：死信交换机和死信队列。
+     */
+    public static final String RETRY_EXCHANGE_PREFIX = "seckillRetryExchange.";
+    public static final String RETRY_QUEUE_PREFIX = "seckillQueue.retry.";
+    public static final String DEAD_LETTER_EXCHANGE = "seckillDeadLetterExchange";
+    public static final String DEAD_LETTER_QUEUE = "seckillQueue.dlq";
+
+    /**
+     * 各级重试的延时（毫秒），依次递增
+     */
+    @Value("${hmdp.seckill.retry.delays-millis:1000,5000,30000}")
+    private long[] retryDelaysMillis;
+
     /**
      * 2. 声明队列
      * 通过 @Bean 注解，将方法返回的 Queue 对象注册为 Spring 容器中的 Bean。
@@ -60,6 +113,88 @@ public class RabbitMQTopicConfig {
     public Binding binding() {
         return BindingBuilder.bind(queue()).to(topicExchange()).with(ROUTINGKEY);
     }
+    /**
+     * 5. 声明分区交换机、分区队列及绑定
+     * 每个分区队列开启 x-single-active-consumer：多个节点都在监听同一个队列，但同一时刻只有一个消费者在消费，
+     * 同一张优惠券的订单总是串行处理，不会在 tb_seckill_voucher 的同一行上争抢行锁。
+     *
+     * @return
+     */
+    @Bean
+    public Declarables seckillPartitions() {
+        DirectExchange exchange = new DirectExchange(PARTITION_EXCHANGE);
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(exchange);
+        for (int i = 0; i < listenedPartitions(); i++) {
+            Queue partitionQueue = QueueBuilder.durable(PARTITION_QUEUE_PREFIX + i).singleActiveConsumer().build();
+            declarables.add(partitionQueue);
+            declarables.add(BindingBuilder.bind(partitionQueue).to(exchange).with(PARTITION_ROUTINGKEY_PREFIX + i));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * 6. 需要声明和监听的分区数：当前分区数与正在排空的旧分区数中较大的一个
+     */
+    public int listenedPartitions() {
+        return Math.max(partitions, drainPartitions);
+    }
+
+    /**
+     * 7. 计算订单所在分区的路由键，同一张优惠券总是落在同一个分区（排空旧分区期间除外，见 drainPartitions）
+     */
+    public String partitionRoutingKey(long voucherId) {
+        return PARTITION_ROUTINGKEY_PREFIX + Math.floorMod(voucherId, partitions);
+    }
+
+    /**
+     * 8. 消息转换器
+     * Spring Boot 会把容器中的 MessageConverter 同时设置到 RabbitTemplate 和监听容器工厂上：
+     * VoucherOrder 使用固定布局的二进制格式，其它消息（包括旧队列中的 JSON 文本）保持原来的转换方式。
+     *
+     * @return
+     */
+    @Bean
+    public MessageConverter seckillOrderMessageConverter() {
+        return new SeckillOrderMessageConverter();
+    }
+
+    /**
+     * 9. 声明重试和死信拓扑
+     * 每个重试级别一个扇出交换机 seckillRetryExchange.{level} 和一个延时队列 seckillQueue.retry.{level}：
+     * 延时队列没有消费者，消息在队列中等待 x-message-ttl 后过期，被死信转发回分区交换机，路由键保持不变，回到原来的分区。
+     * 重试次数用完或者不可重试的消息进入死信队列 seckillQueue.dlq，等待人工检查后重放。
+     *
+     * @return
+     */
+    @Bean
+    public Declarables seckillRetryTopology() {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int level = 0; level < retryDelaysMillis.length; level++) {
+            FanoutExchange exchange = new FanoutExchange(RETRY_EXCHANGE_PREFIX + level);
+            Queue delayQueue = QueueBuilder.durable(RETRY_QUEUE_PREFIX + level)
+                    .ttl((int) retryDelaysMillis[level])
+                    .deadLetterExchange(PARTITION_EXCHANGE)
+                    .build();
+            declarables.add(exchange);
+            declarables.add(delayQueue);
+            declarables.add(BindingBuilder.bind(delayQueue).to(exchange));
+        }
+        FanoutExchange deadLetterExchange = new FanoutExchange(DEAD_LETTER_EXCHANGE);
+        Queue deadLetterQueue = QueueBuilder.durable(DEAD_LETTER_QUEUE).build();
+        declarables.add(deadLetterExchange);
+        declarables.add(deadLetterQueue);
+        declarables.add(BindingBuilder.bind(deadLetterQueue).to(deadLetterExchange));
+        return new Declarables(declarables);
+    }
+
+    /**
+     * 10. 重试级别数，也就是失败后最多重试的次数
+     */
+    public int retryLevels() {
+        return retryDelaysMillis.length;
+    }
+
 //    private static final String QUEUE01="queue_topic01";
 //    private static final String QUEUE02="queue_topic02";
 //    private static final String EXCHANGE = "topicExchange";
@@ -0,0 +1,64 @@
+package com.hmdp.config;
+/**
+ * Redis 熔断器的配置类：按 hmdp.redis-breaker.* 创建 RedisCircuitBreaker，探测时向 Redis 发送 PING。
+ * 探测运行在独立的 redis-breaker-probe 线程上，不会被其他定时任务（它们可能正卡在 Redis 上）推迟。
+ */
+
+import com.hmdp.utils.ExecutorRegistry;
+import com.hmdp.utils.RedisCircuitBreaker;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+@Configuration
+public class RedisCircuitBreakerConfig {
+
+    /**
+     * 连续失败（出错或慢调用）多少次后熔断，耗时超过多少毫秒算慢调用
+     */
+    @Value("${hmdp.redis-breaker.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${hmdp.redis-breaker.slow-call-millis:500}")
+    private long slowCallMillis;
+
+    /**
+     * 熔断多久之后开始探测 Redis 是否恢复（毫秒）
+     */
+    @Value("${hmdp.redis-breaker.open-millis:5000}")
+    private long openMillis;
+
+    /**
+     * 本地最近一次数据最多保存的 key 数和保存时间（秒）
+     */
+    @Value("${hmdp.redis-breaker.local-max-entries:100000}")
+    private long localMaxEntries;
+
+    @Value("${hmdp.redis-breaker.local-ttl-seconds:3600}")
+    private long localTtlSeconds;
+
+    /**
+     * 熔断期间每秒最多查库多少次
+     */
+    @Value("${hmdp.redis-breaker.db-fallback-per-second:50}")
+    private double dbFallbackPerSecond;
+
+    /**
+     * 探测的检查间隔（毫秒）
+     */
+    @Value("${hmdp.redis-breaker.probe-interval-millis:1000}")
+    private long probeIntervalMillis;
+
+    @Bean
+    public RedisCircuitBreaker redisCircuitBreaker(StringRedisTemplate stringRedisTemplate, ExecutorRegistry executorRegistry) {
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(failureThreshold, slowCallMillis, openMillis, localMaxEntries,
+                localTtlSeconds, dbFallbackPerSecond,
+                () -> "PONG".equals(stringRedisTemplate.execute((RedisCallback<String>) RedisConnection::ping)),
+                System::currentTimeMillis);
+        executorRegistry.scheduleWithFixedDelay("redis-breaker-probe", breaker::probe, probeIntervalMillis, probeIntervalMillis);
+        return breaker;
+    }
+}
@@ -0,0 +1,26 @@
+package com.hmdp.config;
+/**
+ * Redis 发布订阅的监听容器配置，各业务通过 addMessageListener 订阅自己关心的频道，
+ * 例如商铺类型变更通知。
+ */
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+@Configuration
+public class RedisListenerConfig {
+    /**
+     * RedisMessageListenerContainer：使用一条独立的订阅连接接收消息，并把消息分发给注册的监听器
+     *
+     * @param connectionFactory Spring Boot 自动配置的 Lettuce 连接工厂
+     * @return
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+}
@@ -4,6 +4,7 @@ package com.hmdp.config;
  */
 
 import com.hmdp.dto.Result;
+import com.hmdp.utils.RedisCircuitBreaker;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
@@ -42,6 +43,15 @@ public class WebExceptionAdvice {
         log.error(e.toString(), e);
         return Result.fail("服务器异常");
     }
+
+    /**
+     * Redis 熔断期间本地没有数据、查库降级也已达到上限，属于预期内的降级，不打印堆栈
+     */
+    @ExceptionHandler(RedisCircuitBreaker.UnavailableException.class)
+    public Result handleRedisUnavailable(RedisCircuitBreaker.UnavailableException e) {
+        log.warn(e.getMessage());
+        return Result.fail("服务繁忙，请稍后重试");
+    }
 }
 /**
  * 通过上述配置，当应用中的控制器方法抛出 RuntimeException 时，会被 handleRuntimeException 方法捕获并处理，
@@ -0,0 +1,64 @@
+package com.hmdp.controller;
+/**
+ * 名为 MetricsController 的 Spring Boot 控制器，用于查看应用内部的运行指标。
+ * 项目中没有引入指标库，各组件把统计保存在进程内，由这里统一以 JSON 返回。
+ */
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.AdaptiveConcurrencyFilter;
+import com.hmdp.utils.BulkheadFilter;
+import com.hmdp.utils.ExecutorRegistry;
+import com.hmdp.utils.RedisCircuitBreaker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    @Autowired
+    private BulkheadFilter bulkheadFilter;
+
+    @Autowired
+    private AdaptiveConcurrencyFilter adaptiveConcurrencyFilter;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 1. 各接口通道（seckill、auth、browse、write）舱壁的饱和情况
+     */
+    @GetMapping("bulkheads")
+    public Result queryBulkheads() {
+        return Result.ok(bulkheadFilter.stats());
+    }
+
+    /**
+     * 2. 各接口分组自适应限流的当前上限、处理中请求数、拒绝数和延迟
+     */
+    @GetMapping("limiters")
+    public Result queryLimiters() {
+        return Result.ok(adaptiveConcurrencyFilter.stats());
+    }
+
+    /**
+     * 3. ExecutorRegistry 管理的后台线程池（缓存重建、MQ 发送等）的队列深度、拒绝数和排队/执行时间
+     */
+    @GetMapping("executors")
+    public Result queryExecutors() {
+        return Result.ok(executorRegistry.stats());
+    }
+
+    /**
+     * 4. Redis 熔断器的状态、失败和慢调用次数、本地数据命中和查库降级次数
+     */
+    @GetMapping("redis")
+    public Result queryRedis() {
+        return Result.ok(redisCircuitBreaker.stats());
+    }
+}
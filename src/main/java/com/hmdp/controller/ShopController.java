@@ -1,12 +1,9 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -51,10 +48,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库并同步检索索引，返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -96,27 +91,26 @@ public class ShopController {
      * 5. 根据名称模糊查询商铺
      *
      * @param name    商铺名称关键字
+     * @param typeId  可选，商铺类型
+     * @param prefix  可选，为 true 时只返回名称以关键字开头的商铺（输入联想）
      * @param current 页码
      * @return 商铺列表
      * <p>
      * 请求路径：/shop/of/name
-     * 功能：通过关键词模糊匹配商铺名称并分页返回结果。
+     * 功能：通过关键词匹配商铺名称、商圈、地址，按相关度排序后分页返回结果。
      * 说明：
-     * 使用了 StrUtil.isNotBlank() 判断是否输入了查询关键词。
+     * 关键词检索由进程内倒排索引 ShopSearchIndex 完成，不再对 tb_shop 做 LIKE '%关键字%' 全表扫描。
      * SystemConstants.MAX_PAGE_SIZE：控制单页最大条数。
-     * 返回当前页的所有商铺数据。
+     * 返回当前页的所有商铺数据，total 为命中总数。
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "typeId", required = false) Long typeId,
+            @RequestParam(value = "prefix", defaultValue = "false") Boolean prefix,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, typeId, prefix, current);
     }
 }
 /**
@@ -5,7 +5,10 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -36,12 +39,25 @@ public class ShopTypeController {
      *
      * @return
      * @GetMapping("list")：处理对路径 /shop-type/list 的 HTTP GET 请求。
-     * queryTypeList() 方法：调用 typeService 的 queryList() 方法，获取商铺类型的列表，
-     * 并将结果封装在 Result 对象中返回。
+     * queryTypeList() 方法：调用 typeService 的 queryListBytes() 方法，获取本地快照中已经序列化好的
+     * Result 响应字节直接写出，不再经过 Jackson 序列化。
      */
     @GetMapping("list")
-    public Result queryTypeList() {
-        return typeService.queryList();
+    public ResponseEntity<byte[]> queryTypeList() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(typeService.queryListBytes());
+    }
+
+    /**
+     * 通知所有节点重新加载商铺类型快照
+     * 商铺类型没有增删改接口，直接修改 tb_shop_type 后调用该接口，各节点从 MySQL 重新加载并失效缓存的 /shop-type/** 响应。
+     * 只允许管理员访问（AdminInterceptor，hmdp.admin.user-ids）。
+     */
+    @PostMapping("refresh")
+    public Result refreshTypes() {
+        typeService.publishChange();
+        return Result.ok();
     }
 }
 /**
@@ -39,12 +39,12 @@ public class VoucherController {
      * @PostMapping：处理 /voucher 的 POST 请求，用于新增普通优惠券。
      * addVoucher 方法：
      * 参数：voucher，通过 @RequestBody 注解，从请求体中获取优惠券信息。
-     * 调用 voucherService 的 save 方法，将优惠券信息保存到数据库。
+     * 调用 voucherService 的 addVoucher 方法，将优惠券信息保存到数据库，并在提交后失效该店铺的优惠券缓存。
      * 返回保存后的优惠券 ID。
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
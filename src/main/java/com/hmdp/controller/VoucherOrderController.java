@@ -5,12 +5,22 @@ package com.hmdp.controller;
  */
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillQueueDTO;
+import com.hmdp.rebbitmq.SeckillFailureHandler;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillOrderResults;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.UserHolder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 类级别注解
@@ -31,6 +41,15 @@ public class VoucherOrderController {
     @Autowired
     private IVoucherOrderService voucherOrderService;
 
+    @Autowired
+    private SeckillFailureHandler seckillFailureHandler;
+
+    @Autowired
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Autowired
+    private SeckillOrderResults seckillOrderResults;
+
     /**
      * 控制器方法解析
      * 1. 秒杀优惠券下单
@@ -40,12 +59,81 @@ public class VoucherOrderController {
      * @PostMapping("seckill/{id}")：处理 /voucher-order/seckill/{id} 的 POST 请求，用于秒杀特定的优惠券。
      * seckillVoucher 方法：
      * 参数：voucherId，通过 @PathVariable("id") 注解，从 URL 路径中获取优惠券的 ID。
-     * 调用 voucherOrderService 的 seckillVoucher 方法，执行秒杀下单的业务逻辑。
-     * 返回秒杀操作的结果，通常是一个包含操作成功或失败信息的 Result 对象。
+     * 调用 voucherOrderService 的 seckillVoucherAsync 方法，执行秒杀下单的业务逻辑。
+     * 返回 CompletableFuture<Result>：Spring MVC 按异步请求处理，Tomcat 线程立即释放，
+     * 限流等待和 Redis 调用完成后再写回响应，少量 Tomcat 线程就能承载大量进行中的抢购请求。
      */
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return voucherOrderService.seckillVoucher(voucherId);
+    public CompletableFuture<Result> seckillVoucher(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.seckillVoucherAsync(voucherId);
+    }
+
+    /**
+     * 5. 秒杀排队：领取排队号
+     * 开启虚拟等候室时，用户先调用该接口排队，轮到后再调用秒杀下单接口；同一用户重复调用返回原来的排队号。
+     */
+    @PostMapping("queue/{id}")
+    public Result enqueue(@PathVariable("id") Long voucherId) {
+        if (!seckillWaitingRoom.isEnabled()) {
+            return Result.fail("当前秒杀不需要排队");
+        }
+        SeckillQueueDTO dto = seckillWaitingRoom.enqueue(voucherId, UserHolder.getUser().getId());
+        return dto == null ? Result.fail("秒杀券不存在或已经结束") : Result.ok(dto);
+    }
+
+    /**
+     * 6. 查询排队状态
+     * 客户端轮询该接口，带上领取到的排队号时只读本地缓存的放行进度，不访问 Redis。
+     */
+    @GetMapping("queue/{id}")
+    public Result queryQueue(@PathVariable("id") Long voucherId,
+                             @RequestParam(value = "ticket", required = false) Long ticket) {
+        if (ticket == null) {
+            ticket = seckillWaitingRoom.ticketOf(voucherId, UserHolder.getUser().getId());
+            if (ticket == null) {
+                return Result.fail("请先排队");
+            }
+        }
+        return Result.ok(seckillWaitingRoom.status(voucherId, ticket));
+    }
+
+    /**
+     * 7. 查询秒杀订单状态
+     * 返回 pending（处理中）、persisted（已落库）或 failed（失败）。wait 为最多等待的毫秒数：
+     * 订单还在处理中时请求被挂起，状态变化后立即返回，超时仍返回 pending，客户端不需要反复轮询。
+     * 状态来自本地缓存和 Redis，不查询 MySQL。只能查询自己的订单，其他用户的、从未发放或已经过期的订单 id 返回订单不存在。
+     */
+    @GetMapping("status/{orderId}")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("orderId") Long orderId,
+                                                   @RequestParam(value = "wait", defaultValue = "0") Long wait) {
+        return seckillOrderResults.await(orderId, UserHolder.getUser().getId(), wait);
+    }
+
+    /**
+     * 2. 查看秒杀订单死信队列
+     * 返回死信队列头部最多 max 条消息的订单信息和失败原因，消息仍留在队列中。
+     * 死信相关的接口只允许管理员访问（AdminInterceptor，hmdp.admin.user-ids）。
+     */
+    @GetMapping("dead-letter")
+    public Result queryDeadLetters(@RequestParam(value = "max", defaultValue = "20") Integer max) {
+        return Result.ok(seckillFailureHandler.peek(Math.min(max, 200)));
+    }
+
+    /**
+     * 3. 重放秒杀订单死信
+     * 排除故障后把死信队列中最多 max 条消息重新发往分区队列，返回实际重放的条数。
+     */
+    @PostMapping("dead-letter/replay")
+    public Result replayDeadLetters(@RequestParam(value = "max", defaultValue = "100") Integer max) {
+        return Result.ok(seckillFailureHandler.replay(max));
+    }
+
+    /**
+     * 4. 秒杀订单消费失败的统计：按失败原因、各重试级别、进入死信队列和重放的条数
+     */
+    @GetMapping("dead-letter/stats")
+    public Result queryFailureStats() {
+        return Result.ok(seckillFailureHandler.stats());
     }
 }
 /**
@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+/**
+ * 名为 SeckillDeadLetterDTO 的 Java 类，表示死信队列中的一条秒杀订单消息，供检查死信的接口返回。
+ */
+
+import lombok.Data;
+
+@Data
+public class SeckillDeadLetterDTO {
+    /**
+     * orderId / userId / voucherId：消息中的订单信息，消息体无法解码时为 null。
+     * attempts：进入死信队列前已经失败的次数。
+     * reason：失败原因（异常类名），message：异常信息。
+     * body：消息体无法解码时的原始内容，便于排查。
+     */
+    private Long orderId;
+    private Long userId;
+    private Long voucherId;
+    private Integer attempts;
+    private String reason;
+    private String message;
+    private String body;
+}
@@ -0,0 +1,20 @@
+package com.hmdp.dto;
+/**
+ * 名为 SeckillOrderStatusDTO 的 Java 类，表示秒杀订单的处理状态，由查询订单状态的接口返回。
+ */
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillOrderStatusDTO {
+    /**
+     * orderId：秒杀下单接口返回的订单 id。
+     * status：pending 排队落库中，persisted 已经写入数据库，failed 下单失败（库存不足、重复下单或多次重试仍失败）。
+     */
+    private Long orderId;
+    private String status;
+}
@@ -0,0 +1,22 @@
+package com.hmdp.dto;
+/**
+ * 名为 SeckillQueueDTO 的 Java 类，表示用户在秒杀排队中的状态，由排队和查询排队状态的接口返回。
+ */
+
+import lombok.Data;
+
+@Data
+public class SeckillQueueDTO {
+    /**
+     * voucherId：秒杀券 id。
+     * ticket：用户的排队号。
+     * admitted：是否已经轮到用户，轮到后才能调用秒杀下单接口。
+     * ahead：前面还有多少人。
+     * waitSeconds：按当前放行速率估算的等待时间（秒）。
+     */
+    private Long voucherId;
+    private Long ticket;
+    private Boolean admitted;
+    private Long ahead;
+    private Long waitSeconds;
+}
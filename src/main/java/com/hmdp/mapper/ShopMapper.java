@@ -2,6 +2,14 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultType;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.time.LocalDateTime;
 
 /**
  * <p>
@@ -13,4 +21,26 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ShopMapper extends BaseMapper<Shop> {
 
+    /**
+     * 流式读取所有商铺的类型和坐标，逐行回调 handler。
+     * fetchSize = Integer.MIN_VALUE 让 MySQL 驱动按行返回结果，不会把整张 tb_shop 读进内存
+     */
+    @Select("SELECT id, type_id, x, y FROM tb_shop")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Shop.class)
+    void streamShopLocations(ResultHandler<Shop> handler);
+
+    /**
+     * 按销量从高到低流式读取最多 limit 个商铺的完整数据，用于启动时预热商铺缓存
+     */
+    @Select("SELECT * FROM tb_shop ORDER BY sold DESC LIMIT #{limit}")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Shop.class)
+    void streamHotShops(@Param("limit") int limit, ResultHandler<Shop> handler);
+
+    /**
+     * 商铺最近一次更新的时间（数据库时钟），用作检索索引快照的增量水位线；没有商铺时返回 null
+     */
+    @Select("SELECT MAX(update_time) FROM tb_shop")
+    LocalDateTime selectMaxUpdateTime();
 }
@@ -2,6 +2,8 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.springframework.dao.DuplicateKeyException;
 
 /**
  * <p>
@@ -13,4 +15,27 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 保存订单
+     */
+    @Insert("INSERT INTO tb_voucher_order (id, user_id, voucher_id, create_time) " +
+            "VALUES (#{id}, #{userId}, #{voucherId}, IFNULL(#{createTime}, CURRENT_TIMESTAMP))")
+    int insertOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 保存订单，同一用户同一张券的订单已经存在（唯一索引 uniqe_key_voucher_user）或订单 id 重复时不做修改。
+     * 消息重复投递时不会报错也不会重复下单；只有唯一键冲突被当作重复订单，其他错误（字段超长、非空约束等）照常抛出，
+     * 这一点与 INSERT IGNORE 不同。按唯一键冲突的异常判断重复，不依赖驱动返回的影响行数，
+     * 连接串不需要 useAffectedRows=true（它会改变应用中所有 UPDATE 的返回值）。
+     * MySQL 中唯一键冲突只回滚这一条语句，所在的事务可以继续执行。
+     *
+     * @return 1 表示新订单，0 表示重复订单
+     */
+    default int insertIfAbsent(VoucherOrder voucherOrder) {
+        try {
+            return insertOrder(voucherOrder);
+        } catch (DuplicateKeyException e) {
+            return 0;
+        }
+    }
 }
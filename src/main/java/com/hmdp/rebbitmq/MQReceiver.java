@@ -7,14 +7,18 @@ package com.hmdp.rebbitmq;
 import com.alibaba.fastjson.JSON;
 import com.hmdp.config.RabbitMQTopicConfig;
 import com.hmdp.entity.VoucherOrder;
-import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.rabbit.listener.SimpleRabbitListenerEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 
 /**
  * 消息消费者
@@ -25,87 +29,90 @@ import javax.annotation.Resource;
  *
  * @Slf4j：这是 Lombok 提供的注解，用于在类中自动生成一个日志记录器（log），方便进行日志记录。
  * @Service：将该类标识为 Spring 的服务组件，使其成为 Spring 容器管理的 Bean，可以被其他组件注入使用。
+ * @ConditionalOnProperty：只有秒杀订单使用 RabbitMQ 传输（默认）时才注册监听器，使用 Redis Stream 时不连接 RabbitMQ。
  */
 @Slf4j
 @Service
-public class MQReceiver {
+@ConditionalOnProperty(name = "hmdp.seckill.transport", havingValue = "rabbitmq", matchIfMissing = true)
+public class MQReceiver implements RabbitListenerConfigurer {
 
     /**
      * 2. 依赖注入
      *
-     * @Resource：用于注入依赖的服务组件。这里注入了两个服务： IVoucherOrderService voucherOrderService：处理代金券订单相关操作的服务。
-     * ISeckillVoucherService seckillVoucherService：处理秒杀代金券库存操作的服务。
+     * @Resource：用于注入依赖的服务组件。这里注入了 IVoucherOrderService voucherOrderService：处理代金券订单相关操作的服务。
      */
     @Resource
     IVoucherOrderService voucherOrderService;
 
     @Resource
-    ISeckillVoucherService seckillVoucherService;
+    RabbitMQTopicConfig rabbitMQTopicConfig;
+
+    @Resource
+    SeckillFailureHandler seckillFailureHandler;
 
     /**
-     * 接收秒杀信息并下单
-     *
-     * @param msg
+     * 为每个分区队列单独注册一个并发数为 1 的监听容器：
+     * 如果用一个容器监听所有分区，要么所有分区挤在一个线程上，要么同一分区会被多个线程并发消费。
+     * 配合队列的 single-active-consumer，同一分区在整个集群中同一时刻只有一个消费者。
      */
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        for (int i = 0; i < rabbitMQTopicConfig.listenedPartitions(); i++) {
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId("seckill-partition-" + i);
+            endpoint.setQueueNames(RabbitMQTopicConfig.PARTITION_QUEUE_PREFIX + i);
+            endpoint.setConcurrency("1");
+            endpoint.setMessageListener(this::receivePartitionMessage);
+            registrar.registerEndpoint(endpoint);
+        }
+    }
 
     /**
-     * 5. 事务管理
+     * 分区队列的消息：解码失败或落库失败都交给 SeckillFailureHandler 转入延时重试或死信队列，
+     * 不再抛出异常让消息立即回到队首反复投递
+     */
+    private void receivePartitionMessage(Message message) {
+        VoucherOrder voucherOrder = null;
+        try {
+            voucherOrder = SeckillOrderMessageConverter.decode(message.getBody());
+            voucherOrderService.createSeckillOrder(voucherOrder);
+        } catch (Exception e) {
+            seckillFailureHandler.handle(message, voucherOrder, e);
+        }
+    }
+
+    /**
+     * 接收秒杀信息并下单
      *
-     * @Transactional： 该注解确保方法内的数据库操作在一个事务中执行。
-     * 如果方法执行过程中发生异常，事务会回滚，确保数据的一致性和完整性。
+     * @param msg
      */
-    @Transactional
+
     /**
      * 3. 消息监听与处理
      * @RabbitListener(queues = RabbitMQTopicConfig.QUEUE)：
      * 该注解使方法成为 RabbitMQ 消息队列的监听器，监听指定队列（RabbitMQTopicConfig.QUEUE）中的消息，
      * 并在有消息时触发 receiveSeckillMessage 方法。
+     * 新消息都发往分区队列，旧队列只用来消费完升级前留下的 JSON 消息；
+     * 分区队列的监听器在 configureRabbitListeners 中注册，直接从二进制消息体解码订单。
      */
     @RabbitListener(queues = RabbitMQTopicConfig.QUEUE)
     /**
      * 4. 方法逻辑
-     * 接收和解析消息：方法接收一个字符串类型的消息（msg），并将其解析为 VoucherOrder 对象。
-     * 获取代金券 ID 和用户 ID：从 voucherOrder 对象中获取 voucherId（代金券 ID）和 userId（用户 ID）。
-     * 检查用户是否已购买该代金券：
-     *      通过调用 voucherOrderService，查询数据库中是否存在相同用户和代金券的订单记录。
-     *      如果存在，表示用户已经购买过该代金券，记录错误日志并返回，避免重复购买。
-     * 扣减库存：
-     *      调用 seckillVoucherService，尝试更新代金券的库存数量。使用乐观锁（CAS）确保库存更新的原子性，
-     *      即只有在库存大于 0 时，才会将库存减 1。
-     *
-     *      如果库存不足，记录错误日志并返回。
-     *
-     * 保存订单：如果库存更新成功，调用 voucherOrderService.save(voucherOrder) 将订单保存到数据库。
+     * 接收和解析消息：方法接收原始消息（message），把消息体按 JSON 解析为 VoucherOrder 对象。
+     * 下单：交给 voucherOrderService.createSeckillOrder 在一个事务中完成一人一单校验、扣减库存和保存订单，
+     * Redis Stream 方式的消费者也复用同一段逻辑。
+     * 失败处理：与分区队列相同交给 SeckillFailureHandler，重试时改为二进制格式发往对应的分区。
      */
-    public void receiveSeckillMessage(String msg) {
-        log.info("接收到消息: " + msg);
-        VoucherOrder voucherOrder = JSON.parseObject(msg, VoucherOrder.class);
-
-        Long voucherId = voucherOrder.getVoucherId();
-        //5.一人一单
-        Long userId = voucherOrder.getUserId();
-        //5.1查询订单
-        int count = voucherOrderService.query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-        //5.2判断是否存在
-        if (count > 0) {
-            //用户已经购买过了
-            log.error("该用户已购买过");
-            return;
-        }
-        log.info("扣减库存");
-        //6.扣减库存
-        boolean success = seckillVoucherService
-                .update()
-                .setSql("stock = stock-1")
-                .eq("voucher_id", voucherId)
-                .gt("stock", 0)//cas乐观锁
-                .update();
-        if (!success) {
-            log.error("库存不足");
-            return;
+    public void receiveSeckillMessage(Message message) {
+        String msg = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("接收到消息: {}", msg);
+        VoucherOrder voucherOrder = null;
+        try {
+            voucherOrder = JSON.parseObject(msg, VoucherOrder.class);
+            voucherOrderService.createSeckillOrder(voucherOrder);
+        } catch (Exception e) {
+            seckillFailureHandler.handle(message, voucherOrder, e);
         }
-        //直接保存订单
-        voucherOrderService.save(voucherOrder);
     }
 
 }
@@ -5,11 +5,21 @@ package com.hmdp.rebbitmq;
  */
 
 import com.hmdp.config.RabbitMQTopicConfig;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.utils.ExecutorRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
 /**
  * 消息发送者
  */
@@ -41,29 +51,130 @@ public class MQSender {
     @Autowired
     private RabbitTemplate rabbitTemplate;
 
+    @Autowired
+    private SeckillOutbox outbox;
+
+    @Autowired
+    private RabbitMQTopicConfig rabbitMQTopicConfig;
+
+    /**
+     * 未确认的消息多久之后重发（毫秒）
+     */
+    @Value("${hmdp.seckill.outbox.confirm-timeout-millis:10000}")
+    private long confirmTimeoutMillis;
+
+    /**
+     * 检查未确认消息的间隔（毫秒）
+     */
+    @Value("${hmdp.seckill.outbox.resend-interval-millis:5000}")
+    private long resendIntervalMillis;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    /**
+     * 实际发送消息的线程池：broker 变慢或开启的发送重试都不会阻塞下单请求；
+     * 队列满时直接放弃这一次发送，消息仍在发件箱中，由定时任务重发。应用关闭时由 ExecutorRegistry 统一停止
+     */
+    private ThreadPoolExecutor sendExecutor;
+
+    /**
+     * 5. 注册 publisher confirm 回调：broker 确认收到（且消息没有因为无法路由被退回）后才从发件箱中移除
+     */
+    @PostConstruct
+    public void init() {
+        sendExecutor = executorRegistry.register("mq-send", 2, 10000, new ThreadPoolExecutor.AbortPolicy());
+        executorRegistry.scheduleWithFixedDelay("mq-resend", this::resendUnconfirmed, resendIntervalMillis, resendIntervalMillis);
+        rabbitTemplate.setConfirmCallback((correlationData, ack, cause) -> {
+            if (correlationData == null) {
+                return;
+            }
+            if (ack && correlationData.getReturnedMessage() == null) {
+                outbox.confirm(Long.parseLong(correlationData.getId()));
+            } else {
+                log.warn("秒杀消息未被 broker 确认，稍后重发: orderId={}, cause={}", correlationData.getId(), cause);
+            }
+        });
+        rabbitTemplate.setReturnCallback((message, replyCode, replyText, exchange, routingKey) ->
+                log.error("秒杀消息无法路由: replyCode={}, replyText={}, routingKey={}", replyCode, replyText, routingKey));
+    }
+
     /**
      * 发送秒杀信息
      *
-     * @param msg
+     * @param voucherOrder
      */
 
     /**
      * 4. 发送消息的方法
-     * sendSeckillMessage(String msg)：该方法用于发送秒杀消息。
-     * log.info("发送消息" + msg)：记录发送的消息内容。
-     * rabbitTemplate.convertAndSend(RabbitMQTopicConfig.EXCHANGE, ROUTINGKEY, msg)：
-     * 使用 RabbitTemplate 的 convertAndSend 方法发送消息。
-     * convertAndSend：该方法将消息对象转换为适合传输的格式，并发送到指定的交换机和路由键对应的队列。
+     * sendSeckillMessage(VoucherOrder voucherOrder)：该方法用于发送秒杀消息。
+     * 订单按固定布局编码成 33 字节的二进制消息体（见 SeckillOrderMessageConverter），
+     * 先把消息追加到本地发件箱，刷盘之后再交给发送线程异步发送，调用方既不等待刷盘也不等待 broker。
+     * 以订单 id 作为 CorrelationData，broker 的 confirm 回调据此把消息从发件箱中移除。
+     * 消息按 voucherId 发往分区交换机，同一张优惠券的订单总是进入同一个分区队列。
      * RabbitMQTopicConfig.EXCHANGE：消息发送到的交换机名称。
      *
-     * @param msg
+     * @param voucherOrder
+     */
+    public void sendSeckillMessage(VoucherOrder voucherOrder) {
+        byte[] message = SeckillOrderMessageConverter.encode(voucherOrder, System.currentTimeMillis());
+        outbox.append(voucherOrder.getId(), voucherOrder.getVoucherId(), message).whenComplete((entry, e) -> {
+            if (e == null) {
+                submit(entry);
+                return;
+            }
+            // 写文件失败时仍然发送：消息留在内存中的未确认列表里，只是失去了重启后重放的保障
+            log.error("秒杀消息未能写入发件箱，直接发送: orderId={}", voucherOrder.getId(), e);
+            SeckillOutbox.Entry pending = outbox.pendingEntry(voucherOrder.getId());
+            if (pending != null) {
+                submit(pending);
+            }
+        });
+    }
+
+    /**
+     * 6. 定时重发超时未确认的消息（包括重启后从发件箱恢复的消息）
      */
-    public void sendSeckillMessage(String msg) {
-        log.info("发送消息" + msg);
-        rabbitTemplate.convertAndSend(RabbitMQTopicConfig.EXCHANGE, ROUTINGKEY, msg);
+    public void resendUnconfirmed() {
+        long deadline = System.currentTimeMillis() - confirmTimeoutMillis;
+        for (SeckillOutbox.Entry entry : outbox.pending()) {
+            if (entry.getSentAt() < deadline) {
+                submit(entry);
+            }
+        }
+    }
+
+    private void submit(SeckillOutbox.Entry entry) {
+        // 先记下发送时间，避免排队期间被定时任务重复提交
+        entry.markSent();
+        try {
+            sendExecutor.execute(() -> send(entry));
+        } catch (RejectedExecutionException e) {
+            log.warn("秒杀消息发送队列已满，等待重发: orderId={}", entry.getOrderId());
+        }
+    }
+
+    private void send(SeckillOutbox.Entry entry) {
+        try {
+            CorrelationData correlationData = new CorrelationData(String.valueOf(entry.getOrderId()));
+            if (entry.getVoucherId() == null || !SeckillOrderMessageConverter.isBinary(entry.getMessage())) {
+                // 升级前写入发件箱的 JSON 消息，仍按文本发往旧队列；按消息体本身判断格式，
+                // 分区之后、二进制编码之前写入的记录带有 voucherId，但消息体仍是 JSON，分区消费者无法解码
+                rabbitTemplate.convertAndSend(RabbitMQTopicConfig.EXCHANGE, ROUTINGKEY,
+                        new String(entry.getMessage(), StandardCharsets.UTF_8), correlationData);
+                return;
+            }
+            // 发件箱中保存的就是编码好的二进制消息体，直接发送，按优惠券路由到固定分区
+            rabbitTemplate.send(RabbitMQTopicConfig.PARTITION_EXCHANGE,
+                    rabbitMQTopicConfig.partitionRoutingKey(entry.getVoucherId()),
+                    SeckillOrderMessageConverter.toMessage(entry.getMessage()), correlationData);
+        } catch (AmqpException e) {
+            log.warn("秒杀消息发送失败，等待重发: orderId={}", entry.getOrderId(), e);
+        }
     }
 }
 /**
  * 该类利用 Spring AMQP 提供的 RabbitTemplate，简化了向 RabbitMQ 发送秒杀消息的过程。通过定义交换机和路由键，
  * 可以将消息发送到指定的队列，方便消费者进行处理。这种方式提高了消息发送的效率和可靠性
+ * 消息先写入本地发件箱，依靠 publisher confirm 和定时重发保证 Redis 扣减库存后的订单最终一定送达 MQ。
  */
\ No newline at end of file
@@ -0,0 +1,252 @@
+package com.hmdp.rebbitmq;
+/**
+ * 秒杀订单消息消费失败的处理。
+ * 原来监听器抛出异常后依靠 default-requeue-rejected 立即把消息放回队首，数据库短暂故障时同一条消息被反复投递，
+ * 分区队列被它占住，后面的订单都无法消费，整场秒杀的吞吐量跟着崩溃。现在监听器捕获异常后交给这里：
+ * 1. 可以重试的失败：按已失败次数发往对应级别的延时队列（延时依次递增），到期后回到原来的分区重新消费；
+ * 2. 重试次数用完，或者消息本身有问题（无法解码、参数错误）：带上失败原因发往死信队列，不再自动重试；
+ * 3. 死信队列可以通过接口查看，排除故障后重放回分区队列；
+ * 4. 按失败原因、重试级别分别计数，通过接口查看。项目中没有引入指标库，计数保存在进程内。
+ */
+
+import com.alibaba.fastjson.JSON;
+import com.hmdp.config.RabbitMQTopicConfig;
+import com.hmdp.dto.SeckillDeadLetterDTO;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.utils.SeckillOrderResults;
+import com.rabbitmq.client.GetResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+@Slf4j
+@Component
+public class SeckillFailureHandler {
+    public static final String ATTEMPTS_HEADER = "x-seckill-attempts";
+    public static final String REASON_HEADER = "x-seckill-failure-reason";
+    public static final String MESSAGE_HEADER = "x-seckill-failure-message";
+
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+
+    @Resource
+    private RabbitMQTopicConfig rabbitMQTopicConfig;
+
+    @Resource
+    private SeckillOrderResults seckillOrderResults;
+
+    // 按失败原因计数
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    // 每个重试级别发出的消息数
+    private LongAdder[] retried;
+
+    private final LongAdder deadLettered = new LongAdder();
+
+    private final LongAdder replayed = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        retried = new LongAdder[rabbitMQTopicConfig.retryLevels()];
+        for (int i = 0; i < retried.length; i++) {
+            retried[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 1. 处理一条消费失败的消息
+     * 正常返回后原消息被确认；重试或死信消息发送失败时抛出异常，原消息按 default-requeue-rejected 放回队列
+     *
+     * @param message      原消息
+     * @param voucherOrder 解码出的订单，消息无法解码时为 null
+     * @param e            消费时抛出的异常
+     */
+    public void handle(Message message, VoucherOrder voucherOrder, Exception e) {
+        String reason = reason(e);
+        failures.computeIfAbsent(reason, k -> new LongAdder()).increment();
+        int attempts = attempts(message.getMessageProperties()) + 1;
+        if (voucherOrder == null || !retryable(e) || attempts > retried.length) {
+            deadLetter(message, attempts, reason, e);
+            if (voucherOrder != null && voucherOrder.getId() != null) {
+                seckillOrderResults.record(voucherOrder.getId(), SeckillOrderResults.FAILED);
+            }
+            return;
+        }
+        int level = attempts - 1;
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(SeckillOrderMessageConverter.CONTENT_TYPE);
+        properties.setHeader(ATTEMPTS_HEADER, attempts);
+        byte[] body = SeckillOrderMessageConverter.encode(voucherOrder, System.currentTimeMillis());
+        // 延时队列过期后按这里的路由键回到分区交换机，升级前的 JSON 消息也借此进入对应的分区
+        rabbitTemplate.send(RabbitMQTopicConfig.RETRY_EXCHANGE_PREFIX + level,
+                rabbitMQTopicConfig.partitionRoutingKey(voucherOrder.getVoucherId()),
+                new Message(body, properties));
+        retried[level].increment();
+        log.warn("秒杀订单落库失败，第 {} 次重试: orderId={}, reason={}", attempts, voucherOrder.getId(), reason);
+    }
+
+    /**
+     * 2. 查看死信队列中的消息，不会把消息移出队列
+     *
+     * @param max 最多查看的条数
+     */
+    public List<SeckillDeadLetterDTO> peek(int max) {
+        return rabbitTemplate.execute(channel -> {
+            List<SeckillDeadLetterDTO> list = new ArrayList<>();
+            long lastTag = -1;
+            for (int i = 0; i < max; i++) {
+                GetResponse response = channel.basicGet(RabbitMQTopicConfig.DEAD_LETTER_QUEUE, false);
+                if (response == null) {
+                    break;
+                }
+                lastTag = response.getEnvelope().getDeliveryTag();
+                list.add(toDTO(response));
+            }
+            if (lastTag >= 0) {
+                // 取出的消息全部放回队列
+                channel.basicNack(lastTag, true, true);
+            }
+            return list;
+        });
+    }
+
+    /**
+     * 3. 把死信队列中的消息重放回分区队列，重试次数清零；无法解码的消息留在死信队列中
+     *
+     * @param max 最多重放的条数
+     * @return 重放的条数
+     */
+    public int replay(int max) {
+        Integer count = rabbitTemplate.execute(channel -> {
+            int done = 0;
+            List<Long> unreadable = new ArrayList<>();
+            for (int i = 0; i < max; i++) {
+                GetResponse response = channel.basicGet(RabbitMQTopicConfig.DEAD_LETTER_QUEUE, false);
+                if (response == null) {
+                    break;
+                }
+                long tag = response.getEnvelope().getDeliveryTag();
+                VoucherOrder voucherOrder = decode(response.getBody());
+                if (voucherOrder == null) {
+                    unreadable.add(tag);
+                    continue;
+                }
+                byte[] body = SeckillOrderMessageConverter.encode(voucherOrder, System.currentTimeMillis());
+                MessageProperties properties = new MessageProperties();
+                properties.setContentType(SeckillOrderMessageConverter.CONTENT_TYPE);
+                rabbitTemplate.send(RabbitMQTopicConfig.PARTITION_EXCHANGE,
+                        rabbitMQTopicConfig.partitionRoutingKey(voucherOrder.getVoucherId()),
+                        new Message(body, properties));
+                channel.basicAck(tag, false);
+                // 重新进入处理中
+                seckillOrderResults.record(voucherOrder.getId(), SeckillOrderResults.PENDING);
+                done++;
+            }
+            for (Long tag : unreadable) {
+                channel.basicNack(tag, false, true);
+            }
+            return done;
+        });
+        int replayedCount = count == null ? 0 : count;
+        replayed.add(replayedCount);
+        if (replayedCount > 0) {
+            log.warn("重放 {} 条秒杀订单死信", replayedCount);
+        }
+        return replayedCount;
+    }
+
+    /**
+     * 4. 失败计数：按失败原因、各重试级别、进入死信队列和重放的条数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Map<String, Long> byReason = new LinkedHashMap<>();
+        failures.forEach((reason, counter) -> byReason.put(reason, counter.sum()));
+        stats.put("failures", byReason);
+        List<Long> byLevel = new ArrayList<>(retried.length);
+        for (LongAdder counter : retried) {
+            byLevel.add(counter.sum());
+        }
+        stats.put("retried", byLevel);
+        stats.put("deadLettered", deadLettered.sum());
+        stats.put("replayed", replayed.sum());
+        return stats;
+    }
+
+    private void deadLetter(Message message, int attempts, String reason, Exception e) {
+        MessageProperties properties = message.getMessageProperties();
+        properties.setHeader(ATTEMPTS_HEADER, attempts);
+        properties.setHeader(REASON_HEADER, reason);
+        properties.setHeader(MESSAGE_HEADER, String.valueOf(e.getMessage()));
+        rabbitTemplate.send(RabbitMQTopicConfig.DEAD_LETTER_EXCHANGE, "", message);
+        deadLettered.increment();
+        log.error("秒杀订单消息进入死信队列: attempts={}, reason={}", attempts, reason, e);
+    }
+
+    // 消息本身有问题的失败重试也不会成功
+    private static boolean retryable(Exception e) {
+        return !(e instanceof MessageConversionException || e instanceof IllegalArgumentException);
+    }
+
+    private static String reason(Exception e) {
+        Throwable cause = e;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause.getClass().getSimpleName();
+    }
+
+    private static int attempts(MessageProperties properties) {
+        Object attempts = properties.getHeaders().get(ATTEMPTS_HEADER);
+        return attempts instanceof Number ? ((Number) attempts).intValue() : 0;
+    }
+
+    private static SeckillDeadLetterDTO toDTO(GetResponse response) {
+        SeckillDeadLetterDTO dto = new SeckillDeadLetterDTO();
+        Map<String, Object> headers = response.getProps().getHeaders();
+        if (headers != null) {
+            Object attempts = headers.get(ATTEMPTS_HEADER);
+            dto.setAttempts(attempts instanceof Number ? ((Number) attempts).intValue() : null);
+            dto.setReason(headers.get(REASON_HEADER) == null ? null : headers.get(REASON_HEADER).toString());
+            dto.setMessage(headers.get(MESSAGE_HEADER) == null ? null : headers.get(MESSAGE_HEADER).toString());
+        }
+        VoucherOrder voucherOrder = decode(response.getBody());
+        if (voucherOrder == null) {
+            dto.setBody(new String(response.getBody(), StandardCharsets.UTF_8));
+        } else {
+            dto.setOrderId(voucherOrder.getId());
+            dto.setUserId(voucherOrder.getUserId());
+            dto.setVoucherId(voucherOrder.getVoucherId());
+        }
+        return dto;
+    }
+
+    // 死信中可能有二进制消息，也可能有升级前的 JSON 消息
+    private static VoucherOrder decode(byte[] body) {
+        try {
+            return SeckillOrderMessageConverter.decode(body);
+        } catch (MessageConversionException e) {
+            try {
+                VoucherOrder voucherOrder = JSON.parseObject(
+                        new String(body, StandardCharsets.UTF_8), VoucherOrder.class);
+                return voucherOrder == null || voucherOrder.getId() == null || voucherOrder.getVoucherId() == null
+                        ? null : voucherOrder;
+            } catch (RuntimeException ignored) {
+                return null;
+            }
+        }
+    }
+}
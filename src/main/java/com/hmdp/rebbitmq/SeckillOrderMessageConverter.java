@@ -0,0 +1,120 @@
+package com.hmdp.rebbitmq;
+/**
+ * 秒杀订单消息的二进制编码。
+ * 原来每条订单消息都要经过 fastjson 序列化成 JSON 字符串、再由 SimpleMessageConverter 转成字节，
+ * 消费端再把字节转回字符串并反射解析，一条只有三个 long 的消息要一百多字节，还要产生一堆临时对象。
+ * 这里使用固定布局（大端序，共 33 字节）：
+ * [version:1][id:8][userId:8][voucherId:8][timestamp:8]
+ * 编码时直接写入恰好 33 字节的消息体数组，解码时直接从消息体中按偏移读取，中间不再产生字符串或缓冲区对象。
+ * 每条消息的消息体数组和 MessageProperties 不复用：消息体要作为发件箱记录保存到收到 broker 确认为止，
+ * RabbitTemplate 发送和重试期间也持有它，MessageProperties 由 Spring AMQP 按消息填写；
+ * 先写入线程复用的缓冲区再复制出来只会多一次复制，33 字节的数组就是每条消息唯一需要的分配。
+ * 作为 RabbitTemplate 和监听容器的 MessageConverter 使用：VoucherOrder 按二进制格式转换，
+ * 其它类型（包括升级前发送的 JSON 文本消息）交给 SimpleMessageConverter 处理。
+ */
+
+import com.hmdp.entity.VoucherOrder;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+public class SeckillOrderMessageConverter implements MessageConverter {
+    public static final String CONTENT_TYPE = "application/x-hmdp-seckill-order";
+    public static final byte VERSION = 1;
+    public static final int LENGTH = 33;
+
+    private final SimpleMessageConverter fallback = new SimpleMessageConverter();
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        if (!(object instanceof VoucherOrder)) {
+            return fallback.toMessage(object, messageProperties);
+        }
+        byte[] body = encode((VoucherOrder) object, System.currentTimeMillis());
+        messageProperties.setContentType(CONTENT_TYPE);
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        if (CONTENT_TYPE.equals(message.getMessageProperties().getContentType())) {
+            return decode(message.getBody());
+        }
+        return fallback.fromMessage(message);
+    }
+
+    /**
+     * 把已经编码好的消息体包装成 AMQP 消息，发件箱重发时不用重新编码
+     */
+    public static Message toMessage(byte[] body) {
+        MessageProperties messageProperties = new MessageProperties();
+        messageProperties.setContentType(CONTENT_TYPE);
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    /**
+     * 编码订单
+     *
+     * @param voucherOrder 订单，需要 id、userId、voucherId
+     * @param timestamp    下单时间（毫秒）
+     * @return 33 字节的消息体
+     */
+    public static byte[] encode(VoucherOrder voucherOrder, long timestamp) {
+        byte[] body = new byte[LENGTH];
+        body[0] = VERSION;
+        putLong(body, 1, voucherOrder.getId());
+        putLong(body, 9, voucherOrder.getUserId());
+        putLong(body, 17, voucherOrder.getVoucherId());
+        putLong(body, 25, timestamp);
+        return body;
+    }
+
+    /**
+     * 消息体是否为本类的二进制格式：长度为 33 且首字节是版本号。
+     * 升级前的 JSON 文本以 '{' 开头，与版本号不会混淆
+     */
+    public static boolean isBinary(byte[] body) {
+        return body != null && body.length == LENGTH && body[0] == VERSION;
+    }
+
+    /**
+     * 解码订单，下单时间写入 createTime
+     */
+    public static VoucherOrder decode(byte[] body) {
+        if (body == null || body.length < LENGTH) {
+            throw new MessageConversionException("秒杀订单消息长度错误: " + (body == null ? 0 : body.length));
+        }
+        if (body[0] != VERSION) {
+            throw new MessageConversionException("不支持的秒杀订单消息版本: " + body[0]);
+        }
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(getLong(body, 1));
+        voucherOrder.setUserId(getLong(body, 9));
+        voucherOrder.setVoucherId(getLong(body, 17));
+        voucherOrder.setCreateTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(getLong(body, 25)), ZoneId.systemDefault()));
+        return voucherOrder;
+    }
+
+    private static void putLong(byte[] buf, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buf[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] buf, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buf[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,224 @@
+package com.hmdp.rebbitmq;
+/**
+ * 秒杀订单对账。
+ * seckill.lua 成功后 seckill:order:{voucherId} 中就有了这个用户，订单要等 MQ 消费后才写入 tb_voucher_order，
+ * 发件箱只能覆盖本节点的消息，节点磁盘损坏、消费失败被丢弃等情况仍可能让两边不一致。这里定期核对最近的秒杀券：
+ * 1. Redis 中有而数据库中没有的用户：连续两轮都缺失（排除还在队列中的消息）才按当前传输方式补发一条下单消息，
+ *    订单 id 沿用 seckill.lua 记在 seckill:order:id:{voucherId} 中的原 id，客户端拿到的订单 id 仍然有效；
+ *    消费者按一人一单去重，原消息后到也不会重复下单；
+ *    已经记录为失败（例如数据库库存不足、事务回滚）的订单不再补发，每个用户最多补发 max-resends 次，
+ *    超过后把订单记为失败，不再处理；
+ * 2. 数据库中有而 Redis 中没有的用户（例如 Redis 数据丢失）：补写回集合，保证一人一单的判断仍然正确。
+ * 多个节点通过分布式锁保证同一时间只有一个节点在对账。
+ */
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.ExecutorRegistry;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillOrderResults;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_ID_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RESEND_KEY;
+
+@Slf4j
+@Component
+public class SeckillOrderReconciler {
+    private static final String LOCK_KEY = "lock:seckill:reconcile";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private RedisIdWorker redisIdWorker;
+    @Resource
+    private MQSender mqSender;
+    @Resource
+    private SeckillOrderResults seckillOrderResults;
+
+    /**
+     * 对账覆盖结束时间在最近多少小时内（以及尚未结束）的秒杀券
+     */
+    @Value("${hmdp.seckill.reconcile.window-hours:24}")
+    private long windowHours;
+
+    /**
+     * 每个用户的订单最多补发多少次
+     */
+    @Value("${hmdp.seckill.reconcile.max-resends:3}")
+    private long maxResends;
+
+    @Value("${hmdp.seckill.transport:rabbitmq}")
+    private String transport;
+
+    // 上一轮发现的 Redis 中有而数据库中没有的用户，按秒杀券分组
+    private Map<Long, Set<String>> suspects = new HashMap<>();
+
+    /**
+     * 对账间隔（毫秒）
+     */
+    @Value("${hmdp.seckill.reconcile.interval-millis:300000}")
+    private long intervalMillis;
+
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    /**
+     * 对账要查库，可能执行很久，运行在独立的 seckill-reconcile 线程上，不推迟其他定时任务
+     */
+    @PostConstruct
+    public void init() {
+        executorRegistry.scheduleWithFixedDelay("seckill-reconcile", this::reconcile, intervalMillis, intervalMillis);
+    }
+
+    public void reconcile() {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .select("voucher_id")
+                    .gt("end_time", LocalDateTime.now().minusHours(windowHours))
+                    .list();
+            Map<Long, Set<String>> missing = new HashMap<>();
+            for (SeckillVoucher voucher : vouchers) {
+                Set<String> lost = reconcile(voucher.getVoucherId());
+                if (!lost.isEmpty()) {
+                    missing.put(voucher.getVoucherId(), lost);
+                }
+            }
+            suspects = missing;
+        } catch (Exception e) {
+            log.error("秒杀订单对账失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 核对一张秒杀券，返回本轮 Redis 中有而数据库中没有的用户
+     */
+    private Set<String> reconcile(Long voucherId) {
+        String orderKey = SECKILL_ORDER_KEY + voucherId;
+        Set<String> redisUsers = new HashSet<>();
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(orderKey, ScanOptions.scanOptions().count(1000).build())) {
+            cursor.forEachRemaining(redisUsers::add);
+        }
+        Set<String> dbUsers = new HashSet<>();
+        for (VoucherOrder order : voucherOrderService.list(new QueryWrapper<VoucherOrder>()
+                .select("user_id").eq("voucher_id", voucherId))) {
+            dbUsers.add(order.getUserId().toString());
+        }
+        // 1. 数据库中有、Redis 中没有：补回集合
+        Set<String> notInRedis = new HashSet<>(dbUsers);
+        notInRedis.removeAll(redisUsers);
+        if (!notInRedis.isEmpty()) {
+            log.warn("秒杀券 {} 有 {} 个已下单用户不在 Redis 中，已补回", voucherId, notInRedis.size());
+            stringRedisTemplate.opsForSet().add(orderKey, notInRedis.toArray(new String[0]));
+        }
+        // 2. Redis 中有、数据库中没有：上一轮也缺失的补发下单消息
+        Set<String> notInDb = new HashSet<>(redisUsers);
+        notInDb.removeAll(dbUsers);
+        Set<String> previous = suspects.getOrDefault(voucherId, new HashSet<>());
+        List<String> lostUsers = new ArrayList<>();
+        for (String userId : notInDb) {
+            if (previous.contains(userId)) {
+                lostUsers.add(userId);
+            }
+        }
+        if (lostUsers.isEmpty()) {
+            return notInDb;
+        }
+        List<Object> orderIds = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_ORDER_ID_KEY + voucherId, new ArrayList<>(lostUsers));
+        String resendKey = SECKILL_RESEND_KEY + voucherId;
+        int resent = 0;
+        int failed = 0;
+        for (int i = 0; i < lostUsers.size(); i++) {
+            String userId = lostUsers.get(i);
+            Long orderId = orderIdOf(voucherId, userId, orderIds.get(i));
+            if (seckillOrderResults.status(orderId) == SeckillOrderResults.FAILED) {
+                // 消费者已经处理过并确定失败（例如数据库库存不足回滚），补发也不会成功
+                continue;
+            }
+            Long attempts = stringRedisTemplate.opsForHash().increment(resendKey, userId, 1);
+            if (attempts != null && attempts > maxResends) {
+                if (attempts == maxResends + 1) {
+                    seckillOrderResults.record(orderId, SeckillOrderResults.FAILED);
+                    failed++;
+                }
+                continue;
+            }
+            VoucherOrder voucherOrder = new VoucherOrder();
+            voucherOrder.setId(orderId);
+            voucherOrder.setUserId(Long.valueOf(userId));
+            voucherOrder.setVoucherId(voucherId);
+            resend(voucherOrder);
+            resent++;
+        }
+        stringRedisTemplate.expire(resendKey, windowHours, TimeUnit.HOURS);
+        if (resent > 0) {
+            log.warn("秒杀券 {} 有 {} 个订单在 Redis 中成功但未落库，已补发下单消息", voucherId, resent);
+        }
+        if (failed > 0) {
+            log.error("秒杀券 {} 有 {} 个订单补发 {} 次后仍未落库，已记为失败", voucherId, failed, maxResends);
+        }
+        return notInDb;
+    }
+
+    // 原订单 id；升级前写入、没有记录订单 id 的用户生成一个新 id 并记下，之后的补发沿用同一个 id
+    private Long orderIdOf(Long voucherId, String userId, Object recorded) {
+        if (recorded != null) {
+            return Long.valueOf(recorded.toString());
+        }
+        Long orderId = redisIdWorker.nextId("order");
+        String key = SECKILL_ORDER_ID_KEY + voucherId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForHash().putIfAbsent(key, userId, orderId.toString()))) {
+            return orderId;
+        }
+        return Long.valueOf(String.valueOf(stringRedisTemplate.opsForHash().get(key, userId)));
+    }
+
+    // 按当前的传输方式补发：Stream 方式直接 XADD，与 seckill.lua 写入的字段一致
+    private void resend(VoucherOrder voucherOrder) {
+        if ("stream".equals(transport)) {
+            Map<String, String> fields = new HashMap<>(4);
+            fields.put("id", voucherOrder.getId().toString());
+            fields.put("userId", voucherOrder.getUserId().toString());
+            fields.put("voucherId", voucherOrder.getVoucherId().toString());
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM_KEY, fields);
+        } else {
+            mqSender.sendSeckillMessage(voucherOrder);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.hmdp.rebbitmq;
+/**
+ * 秒杀消息的本地发件箱（outbox）。
+ * Redis 扣完库存后消息必须最终送达 MQ，否则库存被占用而订单丢失。消息先追加到本地文件并刷盘，之后才发送，
+ * 收到 broker 的 publisher confirm 后再追加一条确认记录；进程重启时重放文件，把没有确认的消息重新发送。
+ * 文件格式为一行一条记录：
+ * P {orderId} {voucherId} {base64(消息)}  待确认的消息，voucherId 用来计算分区路由键
+ * C {orderId}                             已确认
+ * 分区之前的版本写入的 P 记录没有 voucherId，重放时发往旧的 seckillQueue。
+ * 文件由一个写线程访问：append、confirm 只把记录放入有界队列，下单请求和 confirm 回调不会等待磁盘；
+ * 写线程每次取出队列中已有的一批记录，一次写入文件后统一刷盘（组提交），刷盘后才完成 append 返回的 CompletableFuture，
+ * 调用方在它完成后再发送消息；确认记录累积到一定数量后由写线程重写文件，只保留未确认的消息。
+ * 队列满时由调用线程自己写入并刷盘，记录不会被丢弃。
+ */
+
+import com.hmdp.utils.ExecutorRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Component
+public class SeckillOutbox {
+    /**
+     * 发件箱文件路径
+     */
+    @Value("${hmdp.seckill.outbox.file:seckill-outbox.log}")
+    private String file;
+
+    /**
+     * 累积多少条确认记录后重写文件
+     */
+    @Value("${hmdp.seckill.outbox.compact-threshold:10000}")
+    private int compactThreshold;
+
+    /**
+     * 等待写线程写入的记录最多有多少条，队列满时由调用线程直接写入文件
+     */
+    @Value("${hmdp.seckill.outbox.queue-capacity:100000}")
+    private int queueCapacity;
+
+    // 写线程每批最多写入的记录数
+    private static final int MAX_BATCH = 1024;
+
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    private final Map<Long, Entry> pending = new ConcurrentHashMap<>();
+
+    private BlockingQueue<Record> records;
+
+    private final CountDownLatch writerStopped = new CountDownLatch(1);
+
+    private volatile boolean running = true;
+
+    // 以下两个字段只在持有 fileLock 时访问：通常只有写线程，队列满时还有直接写入的调用线程
+    private final Object fileLock = new Object();
+
+    private FileChannel channel;
+
+    private int confirmedSinceCompact = 0;
+
+    /**
+     * 一条尚未确认的消息
+     * voucherId：订单所属优惠券，旧格式的记录中为 null
+     * sentAt：最近一次发送的时间，0 表示还没有发送过（例如重启后从文件中恢复的消息）
+     */
+    public static final class Entry {
+        private final long orderId;
+        private final Long voucherId;
+        private final byte[] message;
+        private volatile long sentAt;
+
+        Entry(long orderId, Long voucherId, byte[] message) {
+            this.orderId = orderId;
+            this.voucherId = voucherId;
+            this.message = message;
+        }
+
+        public long getOrderId() {
+            return orderId;
+        }
+
+        public Long getVoucherId() {
+            return voucherId;
+        }
+
+        public byte[] getMessage() {
+            return message;
+        }
+
+        public long getSentAt() {
+            return sentAt;
+        }
+
+        public void markSent() {
+            this.sentAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 一条等待写入文件的记录，durable 在记录刷盘后完成
+     */
+    private static final class Record {
+        final String line;
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        Record(String line) {
+            this.line = line;
+        }
+    }
+
+    /**
+     * 1. 启动时读取文件，恢复所有未确认的消息，重写文件后启动写线程
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        Path path = Paths.get(file);
+        if (Files.exists(path)) {
+            Map<Long, Entry> recovered = new LinkedHashMap<>();
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(" ");
+                    try {
+                        if ("P".equals(parts[0]) && parts.length == 4) {
+                            long orderId = Long.parseLong(parts[1]);
+                            recovered.put(orderId, new Entry(orderId, Long.valueOf(parts[2]), Base64.getDecoder().decode(parts[3])));
+                        } else if ("P".equals(parts[0]) && parts.length == 3) {
+                            long orderId = Long.parseLong(parts[1]);
+                            recovered.put(orderId, new Entry(orderId, null, Base64.getDecoder().decode(parts[2])));
+                        } else if ("C".equals(parts[0]) && parts.length == 2) {
+                            recovered.remove(Long.parseLong(parts[1]));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // 进程崩溃时最后一行可能只写了一半
+                        log.warn("发件箱中有无法解析的记录，已跳过: {}", line);
+                    }
+                }
+            }
+            pending.putAll(recovered);
+            if (!pending.isEmpty()) {
+                log.warn("发件箱中有 {} 条未确认的秒杀消息，将重新发送", pending.size());
+            }
+        }
+        rewrite();
+        records = new ArrayBlockingQueue<>(queueCapacity);
+        // 写线程一直运行，不需要排队
+        ThreadPoolExecutor writer = executorRegistry.register("seckill-outbox", 1, 0, new ThreadPoolExecutor.AbortPolicy());
+        writer.execute(this::writeLoop);
+    }
+
+    /**
+     * 2. 追加一条待发送的消息，放入写线程的队列，记录刷盘后返回的 CompletableFuture 才完成，调用方此后再发送消息
+     */
+    public CompletableFuture<Entry> append(long orderId, long voucherId, byte[] message) {
+        Entry entry = new Entry(orderId, voucherId, message);
+        // 刷盘之前不让定时任务重发：发送时间从追加时算起，超过 confirm-timeout-millis 仍未发送才会被重发
+        entry.markSent();
+        pending.put(orderId, entry);
+        return enqueue(toRecord(entry) + "\n").thenApply(v -> entry);
+    }
+
+    /**
+     * 3. 收到 broker 确认后记录，消息不再需要重发
+     */
+    public void confirm(long orderId) {
+        if (pending.remove(orderId) == null) {
+            return;
+        }
+        enqueue("C " + orderId + "\n");
+    }
+
+    /**
+     * 4. 所有尚未确认的消息
+     */
+    public Collection<Entry> pending() {
+        return pending.values();
+    }
+
+    /**
+     * 某个订单尚未确认的消息，已确认或不存在时返回 null
+     */
+    public Entry pendingEntry(long orderId) {
+        return pending.get(orderId);
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException, IOException {
+        // 写线程写完队列中剩余的记录后刷盘退出
+        running = false;
+        if (!writerStopped.await(10, TimeUnit.SECONDS)) {
+            log.warn("发件箱写线程未能在 10 秒内退出，队列中还有 {} 条记录", records.size());
+            return;
+        }
+        channel.close();
+    }
+
+    private CompletableFuture<Void> enqueue(String line) {
+        Record record = new Record(line);
+        if (!records.offer(record)) {
+            // 写线程跟不上：由调用线程直接写入并刷盘，宁可这一次慢一些也不丢记录
+            log.warn("发件箱写入队列已满，直接写入文件");
+            List<Record> batch = new ArrayList<>(1);
+            batch.add(record);
+            writeBatch(batch);
+        }
+        return record.durable;
+    }
+
+    /**
+     * 5. 写线程：取出队列中已有的一批记录，一次写入文件后统一刷盘；确认记录足够多时重写文件
+     */
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (running || !records.isEmpty()) {
+                Record first = records.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                records.drainTo(batch, MAX_BATCH - 1);
+                writeBatch(batch);
+                batch.clear();
+            }
+            synchronized (fileLock) {
+                channel.force(false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("发件箱刷盘失败", e);
+        } finally {
+            writerStopped.countDown();
+        }
+    }
+
+    private void writeBatch(List<Record> batch) {
+        StringBuilder buffer = new StringBuilder();
+        for (Record record : batch) {
+            buffer.append(record.line);
+        }
+        IOException failure = null;
+        synchronized (fileLock) {
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer.toString().getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                log.error("写入发件箱失败，{} 条记录未落盘", batch.size(), e);
+                failure = e;
+            }
+            if (failure == null) {
+                compactIfNeeded(batch);
+            }
+        }
+        // 在锁外完成，调用方接着提交发送任务时不占用文件锁
+        for (Record record : batch) {
+            if (failure == null) {
+                record.durable.complete(null);
+            } else {
+                record.durable.completeExceptionally(failure);
+            }
+        }
+    }
+
+    // 确认记录足够多时重写文件；重写失败不影响这批已经刷盘的记录
+    private void compactIfNeeded(List<Record> batch) {
+        for (Record record : batch) {
+            if (record.line.startsWith("C ")) {
+                confirmedSinceCompact++;
+            }
+        }
+        if (confirmedSinceCompact < compactThreshold) {
+            return;
+        }
+        try {
+            rewrite();
+        } catch (IOException e) {
+            log.error("重写发件箱失败", e);
+        }
+    }
+
+    // 把未确认的消息写入临时文件，原子替换旧文件后继续追加
+    private void rewrite() throws IOException {
+        Path path = Paths.get(file).toAbsolutePath();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Path tmp = Paths.get(path + ".tmp");
+        List<String> lines = new ArrayList<>(pending.size());
+        for (Entry entry : pending.values()) {
+            lines.add(toRecord(entry));
+        }
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        // 临时文件先刷盘再替换，替换后旧文件中未确认的记录仍然可以重放
+        try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            tmpChannel.force(false);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        confirmedSinceCompact = 0;
+    }
+
+    private static String toRecord(Entry entry) {
+        String message = Base64.getEncoder().encodeToString(entry.message);
+        return entry.voucherId == null
+                ? "P " + entry.orderId + " " + message
+                : "P " + entry.orderId + " " + entry.voucherId + " " + message;
+    }
+}
@@ -0,0 +1,311 @@
+package com.hmdp.rebbitmq;
+/**
+ * 基于 Redis Stream 的秒杀订单消费者，hmdp.seckill.transport=stream 时替代 RabbitMQ。
+ * seckill.lua 在扣库存、记录用户的同一个原子操作里把订单 XADD 到 stream:seckill:orders，
+ * 订单要么和库存扣减一起写入，要么都不写入，不再有"库存已扣、消息没发出去"的窗口，也少了一次到 MQ 的网络往返。
+ * 1. 启动时创建消费者组（不存在时连同 Stream 一起创建）；
+ * 2. 工作线程用 XREADGROUP COUNT n BLOCK 批量读取新消息，逐条落库后一次 XACK 整批确认；
+ * 3. 定时扫描 PEL（已投递未确认）中空闲过久的消息，XCLAIM 过来重新处理，覆盖消费者崩溃的情况；
+ *    重试超过一定次数仍然失败的消息记录错误日志后确认，避免毒消息一直占着 PEL；
+ * 4. 消费者名称由 hmdp.seckill.stream.consumer-name 给定（默认主机名），重启后不变，启动时能读到上次留下的未确认消息；
+ *    名下没有未确认消息、空闲过久的消费者（例如已经下线的节点）定时从组中删除；
+ * 5. Stream 不在 XADD 时按长度裁剪（会裁掉还在 PEL 中的消息），而是定时 XTRIM MINID 到最早的未确认消息，
+ *    没有未确认消息时裁剪到组已经投递的位置，需要 Redis 6.2 及以上版本。
+ * 落库逻辑与 MQReceiver 相同，由 IVoucherOrderService.createSeckillOrder 完成，重复投递按一人一单去重。
+ */
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.ExecutorRegistry;
+import com.hmdp.utils.SeckillOrderResults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.seckill.transport", havingValue = "stream")
+public class SeckillStreamConsumer implements ApplicationRunner {
+    private static final String GROUP = "seckill-order-group";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillOrderResults seckillOrderResults;
+
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    /**
+     * 工作线程数，每个线程阻塞读取时独占一个 Redis 连接
+     */
+    @Value("${hmdp.seckill.stream.consumers:2}")
+    private int consumers;
+
+    /**
+     * 每次 XREADGROUP 最多读取的消息数
+     */
+    @Value("${hmdp.seckill.stream.batch-size:50}")
+    private int batchSize;
+
+    /**
+     * PEL 中的消息空闲多久后被认为原消费者已经崩溃（毫秒）
+     */
+    @Value("${hmdp.seckill.stream.claim-idle-millis:60000}")
+    private long claimIdleMillis;
+
+    /**
+     * 最多投递次数，超过后不再重试
+     */
+    @Value("${hmdp.seckill.stream.max-deliveries:5}")
+    private long maxDeliveries;
+
+    /**
+     * 检查未确认消息的间隔（毫秒）
+     */
+    @Value("${hmdp.seckill.stream.claim-interval-millis:30000}")
+    private long claimIntervalMillis;
+
+    /**
+     * 本节点的消费者名称前缀，同一进程内的工作线程再加上序号；必须在重启后保持不变，留空时使用主机名
+     */
+    @Value("${hmdp.seckill.stream.consumer-name:}")
+    private String consumerPrefix;
+
+    private ThreadPoolExecutor workers;
+
+    private volatile boolean running = true;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (consumerPrefix == null || consumerPrefix.isEmpty()) {
+            consumerPrefix = hostName();
+        }
+        createGroup();
+        // 每个工作线程一直运行，不需要排队
+        workers = executorRegistry.register("seckill-stream", consumers, 0, new ThreadPoolExecutor.AbortPolicy());
+        for (int i = 0; i < consumers; i++) {
+            String name = consumerPrefix + "-" + i;
+            workers.execute(() -> consume(name));
+        }
+        executorRegistry.scheduleWithFixedDelay("seckill-stream-recovery", this::recoverPending,
+                claimIntervalMillis, claimIntervalMillis);
+    }
+
+    /**
+     * 工作线程：先处理自己名下未确认的消息（上次进程退出时留下的），再持续读取新消息
+     */
+    private void consume(String name) {
+        Consumer consumer = Consumer.from(GROUP, name);
+        boolean history = true;
+        while (running) {
+            try {
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                        StreamOffset.create(SECKILL_ORDER_STREAM_KEY, history ? ReadOffset.from("0") : ReadOffset.lastConsumed()));
+                if (records == null || records.isEmpty()) {
+                    // 自己名下的历史消息处理完了，切换到读取新消息
+                    history = false;
+                    continue;
+                }
+                if (handle(records) == 0 && history) {
+                    // 历史消息一条都处理不了，交给定时接管重试，避免反复读到同一批
+                    history = false;
+                }
+            } catch (Exception e) {
+                if (running) {
+                    log.error("读取秒杀订单 Stream 失败", e);
+                    sleepQuietly();
+                }
+            }
+        }
+    }
+
+    /**
+     * 定时接管空闲过久的未确认消息，之后清理空闲的消费者、裁剪已确认的消息
+     */
+    public void recoverPending() {
+        try {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(SECKILL_ORDER_STREAM_KEY, GROUP, Range.unbounded(), batchSize);
+            List<RecordId> claimable = new ArrayList<>();
+            List<RecordId> dead = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() < claimIdleMillis) {
+                    continue;
+                }
+                if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                    log.error("秒杀订单消息重试 {} 次仍失败，放弃处理: {}", message.getTotalDeliveryCount(), message.getId());
+                    dead.add(message.getId());
+                } else {
+                    claimable.add(message.getId());
+                }
+            }
+            if (!dead.isEmpty()) {
+                markFailed(dead);
+                stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, GROUP, dead.toArray(new RecordId[0]));
+            }
+            if (!claimable.isEmpty()) {
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().claim(
+                        SECKILL_ORDER_STREAM_KEY, GROUP, consumerPrefix + "-recovery",
+                        Duration.ofMillis(claimIdleMillis), claimable.toArray(new RecordId[0]));
+                if (!records.isEmpty()) {
+                    log.warn("接管 {} 条空闲的秒杀订单消息", records.size());
+                    handle(records);
+                }
+            }
+        } catch (Exception e) {
+            log.error("接管秒杀订单 Stream 未确认消息失败", e);
+        }
+        removeIdleConsumers();
+        trim();
+    }
+
+    // 删除名下没有未确认消息、空闲超过 claim-idle-millis 的其他消费者；仍在运行的消费者下次读取时会自动重新加入
+    private void removeIdleConsumers() {
+        try {
+            StreamInfo.XInfoConsumers infos = stringRedisTemplate.opsForStream().consumers(SECKILL_ORDER_STREAM_KEY, GROUP);
+            for (StreamInfo.XInfoConsumer info : infos) {
+                String name = info.consumerName();
+                if (name.startsWith(consumerPrefix + "-") || info.pendingCount() > 0 || info.idleTimeMs() < claimIdleMillis) {
+                    continue;
+                }
+                stringRedisTemplate.opsForStream().deleteConsumer(SECKILL_ORDER_STREAM_KEY, Consumer.from(GROUP, name));
+                log.info("删除空闲的秒杀订单消费者: {}", name);
+            }
+        } catch (Exception e) {
+            log.error("清理秒杀订单 Stream 消费者失败", e);
+        }
+    }
+
+    // 裁掉已经确认的消息：保留最早的未确认消息及之后的消息，没有未确认消息时保留组最后投递的位置之后的消息
+    private void trim() {
+        try {
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY, GROUP);
+            String minId = null;
+            if (summary != null && summary.getTotalPendingMessages() > 0) {
+                minId = summary.minMessageId();
+            } else {
+                for (StreamInfo.XInfoGroup group : stringRedisTemplate.opsForStream().groups(SECKILL_ORDER_STREAM_KEY)) {
+                    if (GROUP.equals(group.groupName())) {
+                        minId = group.lastDeliveredId();
+                    }
+                }
+            }
+            if (minId == null || "0-0".equals(minId)) {
+                return;
+            }
+            byte[] id = minId.getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XTRIM",
+                    SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8), "MINID".getBytes(StandardCharsets.UTF_8),
+                    "~".getBytes(StandardCharsets.UTF_8), id));
+        } catch (Exception e) {
+            log.error("裁剪秒杀订单 Stream 失败", e);
+        }
+    }
+
+    // 逐条落库，成功的消息一次 XACK；失败的留在 PEL 中等待重试。返回成功的条数
+    private int handle(List<MapRecord<String, Object, Object>> records) {
+        List<RecordId> done = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                voucherOrderService.createSeckillOrder(toVoucherOrder(record.getValue()));
+                done.add(record.getId());
+            } catch (Exception e) {
+                log.error("秒杀订单落库失败，等待重试: {}", record.getId(), e);
+            }
+        }
+        if (!done.isEmpty()) {
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, GROUP, done.toArray(new RecordId[0]));
+        }
+        return done.size();
+    }
+
+    // 放弃处理的订单记为失败，客户端查询订单状态时不会一直停在处理中
+    private void markFailed(List<RecordId> ids) {
+        for (RecordId id : ids) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(SECKILL_ORDER_STREAM_KEY, Range.closed(id.getValue(), id.getValue()));
+            if (records != null && !records.isEmpty()) {
+                seckillOrderResults.record(toVoucherOrder(records.get(0).getValue()).getId(), SeckillOrderResults.FAILED);
+            }
+        }
+    }
+
+    private static VoucherOrder toVoucherOrder(Map<Object, Object> value) {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(Long.valueOf(value.get("id").toString()));
+        voucherOrder.setUserId(Long.valueOf(value.get("userId").toString()));
+        voucherOrder.setVoucherId(Long.valueOf(value.get("voucherId").toString()));
+        return voucherOrder;
+    }
+
+    // XGROUP CREATE ... MKSTREAM，组已存在时 Redis 返回 BUSYGROUP，忽略即可
+    private void createGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8), GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            log.debug("秒杀订单消费者组已存在: {}", e.getMessage());
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("无法获取主机名，请配置 hmdp.seckill.stream.consumer-name", e);
+        }
+    }
+
+    private static void sleepQuietly() {
+        try {
+            TimeUnit.SECONDS.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 通知工作线程退出循环，线程池由 ExecutorRegistry 在之后统一停止
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+    }
+}
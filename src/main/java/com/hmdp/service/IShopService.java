@@ -19,4 +19,8 @@ public interface IShopService extends IService<Shop> {
     Result update(Shop shop);
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result saveShop(Shop shop);
+
+    Result queryShopByName(String name, Long typeId, Boolean prefix, Integer current);
 }
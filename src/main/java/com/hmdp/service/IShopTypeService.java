@@ -15,4 +15,10 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryList();
+
+    byte[] queryListBytes();
+
+    void refresh();
+
+    void publishChange();
 }
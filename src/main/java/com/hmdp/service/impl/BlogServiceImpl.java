@@ -19,6 +19,7 @@ import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisCircuitBreaker;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -61,6 +62,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
     @Autowired
     private IFollowService followService;
 
@@ -126,10 +130,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             return;
         }
 
-        //2. 判断当前用户是否点赞
+        //2. 判断当前用户是否点赞，Redis 不可用时用本地保存的最近一次结果，没有时按未点赞显示
         String key = BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userDTO.getId().toString());
-        blog.setIsLike(score != null);
+        String member = userDTO.getId().toString();
+        Boolean liked = redisCircuitBreaker.read(key + ":" + member,
+                () -> stringRedisTemplate.opsForZSet().score(key, member) != null, () -> false);
+        blog.setIsLike(liked);
     }
 
     private void queryBlogUser(Blog blog) {
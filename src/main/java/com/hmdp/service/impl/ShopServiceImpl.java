@@ -16,38 +16,35 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopChangeEvent;
+import com.hmdp.utils.ShopGeoQueryEngine;
+import com.hmdp.utils.ShopSearchIndex;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.geo.Distance;
-import org.springframework.data.geo.GeoResult;
-import org.springframework.data.geo.GeoResults;
-import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
+import javax.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
 
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
-    // 这里需要声明一个线程池，因为下面缓存击穿问题，我们需要新建一个线程来完成重构缓存
-    /*
-    1. 线程池声明：
-    这里声明了一个固定大小为 10 的线程池 CACHE_REBUILD_EXECUTOR，用于在缓存重建时执行异步任务。
-     */
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    // 缓存击穿时需要新开线程重建缓存，重建统一交给 CacheClient.rebuildOnce，
+    // 使用 ExecutorRegistry 中有界的 cache-rebuild 线程池，并且同一个商铺不会被同时重建两次
     /*
     2. StringRedisTemplate 注入：
     通过 @Autowired 注解将 StringRedisTemplate 注入，方便在方法中与 Redis 进行交互。
@@ -55,16 +52,37 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private ShopSearchIndex shopSearchIndex;
+
+    @Autowired
+    private ShopGeoQueryEngine shopGeoQueryEngine;
+
+    @Autowired
+    private CacheClient cacheClient;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /*
+    登记商铺缓存的重建方式：写入商铺缓存时加入刷新调度表，由 CacheRefreshScheduler 在逻辑过期之前均匀地刷新
+     */
+    @PostConstruct
+    public void registerCacheRefresher() {
+        cacheClient.registerRefresher(CACHE_SHOP_KEY, Long::valueOf, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
     /*
     3. queryById 方法
      */
     @Override
     public Result queryById(Long id) {
         // 解决缓存穿透的代码逻辑
-        Shop shop = querywithchuantou(id);
+        // Shop shop = querywithchuantou(id);
         // 利用互斥锁解决缓存击穿的代码逻辑
         // Shop shop = querywithjichuan_mutex(id);
-        // Shop shop = queryWithLogicalExpire(id);
+        // 逻辑过期解决缓存击穿：商铺缓存由启动预热（CacheWarmUp）以逻辑过期格式写入，未命中时再查库补齐
+        Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
             return Result.fail("店铺不存在！！");
         }
@@ -225,31 +243,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 将data转为Shop对象
         JSONObject shopJson = (JSONObject) redisData.getData();
         Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-        // 获取过期时间
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 3. 判断是否过期
-        if (LocalDateTime.now().isBefore(expireTime)) {
+        // 3. 判断是否需要刷新：过期时间是 epoch 毫秒，快过期时按 XFetch 以一定概率提前刷新
+        if (!cacheClient.shouldRefresh(redisData.getExpireTime(), redisData.getDelta())) {
             // 3.1 未过期，直接返回商铺信息
             return shop;
         }
-        // 4 过期，尝试获取互斥锁
-        boolean flag = tryLock(LOCK_SHOP_KEY + id);
-        // 4.1 获取到了锁
-        if (flag) {
-            //  开启独立线程
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    this.saveShop2Redis(id, 20L);// 此处的expirSeconds应该为物品的活动时间,设置为20只为测试
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unlock(LOCK_SHOP_KEY + id);
-                }
-            });
-            //  直接返回商铺信息
-            return shop;
-        }
-        // 4.2 未获取到锁，直接返回商铺信息
+        // 4 需要刷新，获取到互斥锁的线程开启独立线程重建，未获取到锁说明已有线程在重建
+        cacheClient.rebuildOnce(LOCK_SHOP_KEY + id, () -> {
+            try {
+                this.saveShop2Redis(id, 20L);// 此处的expirSeconds应该为物品的活动时间,设置为20只为测试
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        // 5 直接返回商铺信息
         return shop;
     }
 
@@ -273,6 +280,12 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("店铺id不能为空！！");
         }
 
+        // 记下修改前的数据，类型或坐标变化时 GEO 索引需要从旧类型中移除该商铺
+        Shop before = getById(shop.getId());
+        if (before == null) {
+            return Result.fail("店铺不存在！！");
+        }
+
         /*
         3. 先修改数据库
         调用该方法根据shop对象的id在数据库中找到对应的记录，并更新其信息。
@@ -286,10 +299,57 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         删除缓存的目的是在下次获取店铺信息时，避免使用过期的数据，从而确保数据的实时性和一致性。
          */
         stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
-        // 5. 如果上述操作全部成功，返回一个表示成功的结果。
+        /*
+        5. 发布商铺变更事件：
+        传入的 shop 只包含被修改的字段，因此重新读取一次完整数据，
+        搜索索引等组件会在事务提交后根据它更新自身数据。
+         */
+        eventPublisher.publishEvent(new ShopChangeEvent(before, getById(shop.getId())));
+        // 6. 如果上述操作全部成功，返回一个表示成功的结果。
         return Result.ok();
     }
 
+    @Override
+    @Transactional
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 发布商铺变更事件，事务提交后同步到搜索索引等组件
+        eventPublisher.publishEvent(new ShopChangeEvent(null, shop));
+        // 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
+    /*
+    根据名称关键字分页查询商铺：
+    关键字非空且检索索引已就绪时走进程内倒排索引，按相关度排序后只用主键回表；
+    否则（未输入关键字或索引仍在启动构建中）退回原来的数据库分页查询。
+     */
+    @Override
+    public Result queryShopByName(String name, Long typeId, Boolean prefix, Integer current) {
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        ShopSearchIndex.SearchPage searchPage = shopSearchIndex.isReady()
+                ? shopSearchIndex.search(name, typeId, BooleanUtil.isTrue(prefix), from, SystemConstants.MAX_PAGE_SIZE)
+                : null;
+        if (searchPage == null) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name) && !BooleanUtil.isTrue(prefix), "name", name)
+                    .likeRight(StrUtil.isNotBlank(name) && BooleanUtil.isTrue(prefix), "name", name)
+                    .eq(typeId != null, "type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords(), page.getTotal());
+        }
+        List<Long> ids = searchPage.getIds();
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList(), searchPage.getTotal());
+        }
+        // 按索引给出的相关度顺序，通过商铺缓存批量取数据
+        List<Shop> shops = cacheClient.queryBatchWithLogicalExpire(CACHE_SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        return Result.ok(shops, searchPage.getTotal());
+    }
+
 
     /*
     下面用来解决热点高并发访问中的缓存击穿问题
@@ -312,12 +372,14 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     //-------------------------------------------------------------
     // 逻辑过期实现缓存击穿问题->热点问题的数据预热
     public void saveShop2Redis(Long id, Long expirSeconds) throws InterruptedException {
+        long start = System.currentTimeMillis();
         Shop shop = getById(id);
         Thread.sleep(200); // 模拟上面取数据的时间
 
         RedisData redisData = new RedisData();
         redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expirSeconds));
+        redisData.setExpireTime(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expirSeconds));
+        redisData.setDelta(System.currentTimeMillis() - start);
         stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
     }
 
@@ -336,46 +398,31 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
         // 2. 计算分页查询参数
         int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
-        int end = current * SystemConstants.MAX_PAGE_SIZE;
-
-
-        String key = SHOP_GEO_KEY + typeId;
-        // 3. 查询redis、按照距离排序、分页; 结果：shopId、distance
-        // GEOSEARCH key FROMLONLAT x y BYRADIUS 5000 m WITHDIST
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(key,
-                GeoReference.fromCoordinate(x, y),
-                new Distance(5000),
-                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end));
 
-        if (results == null) {
+        // 3. 查询附近商铺、按照距离排序、分页; 结果：shopId、distance
+        // 同一网格内的用户共享一份短时有效的 GEOSEARCH 结果快照，翻页时不再重复查询 Redis
+        List<ShopGeoQueryEngine.NearbyShop> nearby = shopGeoQueryEngine.search(
+                typeId, x, y, SystemConstants.SHOP_NEARBY_RADIUS, from, SystemConstants.MAX_PAGE_SIZE);
+        if (nearby.isEmpty()) {
+            // 起始查询位置大于数据总量，则说明没数据了，返回空集合
             return Result.ok(Collections.emptyList());
         }
 
         // 4. 解析出id
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-
-        if (list.size() < from) {
-            // 起始查询位置大于数据总量，则说明没数据了，返回空集合
-            return Result.ok(Collections.emptyList());
+        List<Long> ids = new ArrayList<>(nearby.size());
+        Map<Long, Double> distanceMap = new HashMap<>(nearby.size());
+        for (ShopGeoQueryEngine.NearbyShop shop : nearby) {
+            ids.add(shop.getId());
+            distanceMap.put(shop.getId(), shop.getDistance());
         }
 
-        ArrayList<Long> ids = new ArrayList<>(list.size());
-        HashMap<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
-        });
-
-
-        // 5. 根据id查询shop
-        String idsStr = StrUtil.join(",", ids);
-
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD( id," + idsStr + ")").list();
+        // 5. 根据id查询shop：先批量读商铺缓存，只有未命中的才批量查库并回写缓存
+        List<Shop> shops = cacheClient.queryBatchWithLogicalExpire(CACHE_SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
         for (Shop shop : shops) {
-            // 设置shop的举例属性，从distanceMap中根据shopId查询
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            // 设置shop的距离属性，从distanceMap中根据shopId查询
+            shop.setDistance(distanceMap.get(shop.getId()));
         }
         // 6. 返回
         return Result.ok(shops);
@@ -1,78 +1,130 @@
 package com.hmdp.service.impl;
 /**
- * 在Spring Boot应用中使用Redis作为缓存来查询店铺类型列表的实现。
- * 其主要目的是通过在缓存中存储店铺类型数据，减少对数据库的直接访问，提高查询效率。
+ * 商铺类型列表的查询实现。
+ * 商铺类型极少变化，因此整个列表以不可变快照的形式保存在本地内存中，快照带有版本号，
+ * 同时缓存好序列化后的响应字节，/shop-type/list 每次请求既不访问 Redis，也不做任何 JSON 解析或序列化。
+ * 类型数据变化时通过 Redis 发布订阅通知所有节点，各节点从 MySQL 重新加载并整体替换快照。
  */
 
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.RedisCircuitBreaker;
+import com.hmdp.utils.ResponseCacheFilter;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
+import javax.annotation.PostConstruct;
+import java.util.Collections;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
-
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_CHANGE_TOPIC;
 
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Autowired
+    private ResponseCacheFilter responseCacheFilter;
+
+    // 使用 Spring MVC 同一个 ObjectMapper 序列化，保证与普通接口的输出格式一致（例如忽略 null 字段）
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * 当前快照，整体替换保证读线程总是看到一份完整一致的数据
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * 商铺类型列表的不可变快照
+     * version：快照版本号，每次重新加载加一
+     * types：按 sort 升序排列的类型列表
+     * body：Result.ok(types) 序列化后的响应字节
+     */
+    private static final class Snapshot {
+        final long version;
+        final List<ShopType> types;
+        final byte[] body;
+
+        Snapshot(long version, List<ShopType> types, byte[] body) {
+            this.version = version;
+            this.types = types;
+            this.body = body;
+        }
+    }
+
+    /**
+     * 1. 启动时加载第一份快照，并订阅类型变更通知
+     */
+    @PostConstruct
+    public void init() {
+        refresh();
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> refresh(), new ChannelTopic(SHOP_TYPE_CHANGE_TOPIC));
+    }
+
+    /**
+     * 2. 查询商铺类型列表：直接返回快照中的数据
+     */
     @Override
     public Result queryList() {
-        // 先从Redis中查，这里的常量值是固定前缀 + 店铺id
-        /*
-        1. 从Redis缓存中获取店铺类型列表：
-        这里使用了StringRedisTemplate的opsForList().range方法，
-        从Redis的列表结构中获取所有存储的店铺类型数据。CACHE_SHOP_TYPE_KEY是缓存中存储店铺类型列表的键名。
-        range方法的参数0和-1表示获取列表中的所有元素。
-         */
-        List<String> shopTypes =
-                stringRedisTemplate.opsForList().range(CACHE_SHOP_TYPE_KEY, 0, -1);
-        // 如果不为空（查询到了），则转为ShopType类型直接返回
-        /*
-        2. 判断缓存中是否存在店铺类型数据：
-        如果从Redis中获取的shopTypes列表不为空，说明缓存中存在店铺类型数据。
-        此时，将这些JSON格式的字符串转换为ShopType对象，并存入新的列表tmp中，最后返回包含店铺类型列表的结果。
-         */
-        if (!shopTypes.isEmpty()) {
-            List<ShopType> tmp = new ArrayList<>();
-            for (String types : shopTypes) {
-                ShopType shopType = JSONUtil.toBean(types, ShopType.class);
-                tmp.add(shopType);
-            }
-            return Result.ok(tmp);
-        }
-        // 否则去数据库中查
-        /*
-        3. 缓存中不存在数据时，从数据库查询：
-        如果缓存中没有店铺类型数据，则通过数据库查询获取，并按照sort字段进行升序排序。
-        若查询结果为空，返回错误信息。
-         */
-        List<ShopType> tmp = query().orderByAsc("sort").list();
-        if (tmp == null) {
-            return Result.fail("店铺类型不存在！！");
-        }
-        // 查到了转为json字符串，存入redis
-        /*
-        4. 将查询结果存入Redis缓存：
-        将从数据库查询到的店铺类型列表转换为JSON字符串后，存入shopTypes列表中。
-        然后使用leftPushAll方法将整个列表存入Redis缓存中，
-        以便后续查询可以直接从缓存获取，减少数据库访问。
-         */
-        for (ShopType shopType : tmp) {
-            String jsonStr = JSONUtil.toJsonStr(shopType);
-            shopTypes.add(jsonStr);
+        return Result.ok(snapshot.types);
+    }
+
+    /**
+     * 3. 查询序列化好的商铺类型列表响应，供控制器直接写出
+     */
+    @Override
+    public byte[] queryListBytes() {
+        return snapshot.body;
+    }
+
+    /**
+     * 4. 从 MySQL 重新加载并替换快照
+     * synchronized 保证并发的变更通知不会让旧数据覆盖新数据
+     */
+    @Override
+    public synchronized void refresh() {
+        List<ShopType> types = Collections.unmodifiableList(query().orderByAsc("sort").list());
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
         }
-        stringRedisTemplate.opsForList().leftPushAll(CACHE_SHOP_TYPE_KEY, shopTypes);
-        // 5. 最终把查询到的商户分类信息返回给前端
-        return Result.ok(tmp);
+        long version = snapshot == null ? 1 : snapshot.version + 1;
+        snapshot = new Snapshot(version, types, body);
+        // 每个节点都会收到变更通知并各自刷新，只需失效本节点缓存的 /shop-type/** 响应
+        responseCacheFilter.evictLocal(ResponseCacheFilter.GROUP_SHOP_TYPE);
+        log.info("商铺类型快照已刷新，版本 {}，共 {} 个类型", version, types.size());
+    }
+
+    /**
+     * 5. 类型数据修改后调用（POST /shop-type/refresh）：通知所有节点（包括自己）重新加载快照
+     */
+    @Override
+    public void publishChange() {
+        // Redis 不可用时至少刷新本节点，其他节点要等 Redis 恢复后的下一次变更通知才会刷新
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.convertAndSend(SHOP_TYPE_CHANGE_TOPIC,
+                String.valueOf(System.currentTimeMillis())), () -> {
+            refresh();
+            return null;
+        });
     }
 }
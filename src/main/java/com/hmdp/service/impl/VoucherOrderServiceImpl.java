@@ -3,26 +3,47 @@ package com.hmdp.service.impl;
  * 实现了秒杀代金券的功能，涉及限流、Lua 脚本执行、订单创建和消息队列等多个环节。
  */
 
-import com.alibaba.fastjson.JSON;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.google.common.util.concurrent.RateLimiter;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.rebbitmq.MQSender;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.AsyncRedisClient;
+import com.hmdp.utils.ExecutorRegistry;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillOrderResults;
+import com.hmdp.utils.SeckillPurchaseFilter;
+import com.hmdp.utils.SeckillSchedule;
+import com.hmdp.utils.SeckillWaitingRoom;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.util.Collections;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
 
+
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
     /*
@@ -60,79 +81,195 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      * RateLimiter.create(10) 表示每秒生成 10 个令牌，即每秒允许最多 10 个请求通过。
      */
     private final RateLimiter rateLimiter = RateLimiter.create(10);
+
+    /**
+     * 限流令牌的等待不阻塞请求线程：拿不到令牌的请求由这个线程按令牌发放间隔定时重试
+     */
+    private ScheduledExecutorService permitRetryExecutor;
+
+    /**
+     * Redis 异步命令返回后的后续步骤在这个线程池上执行，不占用 Lettuce 的 I/O 线程：
+     * 后续步骤可能查库（活动时间表未命中）、加锁（去重过滤器）、写发件箱文件，
+     * 而 I/O 线程与 StringRedisTemplate 共用同一条连接，被阻塞时整个应用的 Redis 命令都会停下来
+     */
+    @Value("${hmdp.executors.seckill-pipeline.threads:16}")
+    private int pipelineThreads;
+
+    @Value("${hmdp.executors.seckill-pipeline.queue:10000}")
+    private int pipelineQueue;
+
+    private ThreadPoolExecutor pipelineExecutor;
+
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private ExecutorRegistry executorRegistry;
     @Resource
     private MQSender mqSender;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillSchedule seckillSchedule;
+    @Resource
+    private SeckillPurchaseFilter seckillPurchaseFilter;
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+    @Resource
+    private SeckillOrderResults seckillOrderResults;
+    @Resource
+    private AsyncRedisClient asyncRedisClient;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
 
+    /**
+     * 秒杀订单的传输方式：rabbitmq（默认）或 stream。
+     * stream 时由 seckill.lua 在扣库存的同一个原子操作里把订单 XADD 到 Redis Stream，不再经过 MQ
+     */
+    @Value("${hmdp.seckill.transport:rabbitmq}")
+    private String transport;
+
+    @PostConstruct
+    public void init() {
+        permitRetryExecutor = executorRegistry.registerScheduled("seckill-permit-retry", 1);
+        pipelineExecutor = executorRegistry.register("seckill-pipeline", pipelineThreads, pipelineQueue,
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 秒杀下单的异步流水线：限流等待、Lua 脚本、生成订单 ID 都不阻塞调用线程，
+     * Redis 命令通过 Lettuce 异步 API 发出，后续步骤在命令返回后继续执行，
+     * 发送 MQ 消息只写入本地发件箱后交给发送线程，不等待 broker，Tomcat 线程在返回 CompletableFuture 后即被释放。
+     * 每个 Redis 命令返回后的步骤都切换到 seckill-pipeline 线程池执行，线程池满时返回"目前网络正忙，请重试"。
+     */
     @Override
-    public Result seckillVoucher(Long voucherId) {
+    public CompletableFuture<Result> seckillVoucherAsync(Long voucherId) {
+        return startSeckill(voucherId).handle((result, e) -> {
+            if (e == null) {
+                return result;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RejectedExecutionException) {
+                return Result.fail("目前网络正忙，请重试");
+            }
+            throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(cause);
+        });
+    }
+
+    private CompletableFuture<Result> startSeckill(Long voucherId) {
         /*
-        tryAcquire 方法： 尝试在指定时间内获取一个令牌。这里设置了超时时间为 1000 毫秒（1 秒）。
-        如果在超时时间内未能获取到令牌，说明当前请求过多，返回错误信息 "目前网络正忙，请重试"。
+        获取用户 ID： 通过 UserHolder.getUser().getId() 获取当前登录用户的 ID。
+        后续步骤运行在其它线程上，必须在请求线程上先取出来。
          */
-        if (!rateLimiter.tryAcquire(1000, TimeUnit.MILLISECONDS)) {
-            return Result.fail("目前网络正忙，请重试");
+        Long userId = UserHolder.getUser().getId();
+        /*
+        本地去重： 在任何网络 I/O 之前先查本节点的去重过滤器。过滤器认为用户可能已经抢购过时，
+        用一次 SISMEMBER 确认，确实买过的直接拒绝，不占用限流令牌、不执行 Lua 脚本；误判的继续走正常流程。
+         */
+        if (!seckillPurchaseFilter.mightHavePurchased(voucherId, userId)) {
+            return checkAndSeckill(voucherId, userId);
         }
+        return asyncRedisClient.sismember(SECKILL_ORDER_KEY + voucherId, userId.toString())
+                .thenComposeAsync(purchased -> Boolean.TRUE.equals(purchased)
+                        ? CompletableFuture.completedFuture(Result.fail("该用户重复下单"))
+                        : checkAndSeckill(voucherId, userId), pipelineExecutor);
+    }
+
+    private CompletableFuture<Result> checkAndSeckill(Long voucherId, Long userId) {
+        /*
+        活动时间校验： 先用本地缓存的活动时间表判断，活动开始前和结束后的请求直接拒绝，
+        不占用限流令牌，也不访问 Redis 和 MQ。
+         */
+        String closedReason = seckillSchedule.checkOpen(voucherId);
+        if (closedReason != null) {
+            return CompletableFuture.completedFuture(Result.fail(closedReason));
+        }
+        /*
+        排队校验： 开启虚拟等候室时，只有排队号已被放行的用户才能继续抢购
+         */
+        if (!seckillWaitingRoom.isEnabled()) {
+            return acquireAndSeckill(voucherId, userId);
+        }
+        return seckillWaitingRoom.checkAdmittedAsync(voucherId, userId)
+                .thenComposeAsync(waitingReason -> waitingReason != null
+                        ? CompletableFuture.completedFuture(Result.fail(waitingReason))
+                        : acquireAndSeckill(voucherId, userId), pipelineExecutor);
+    }
+
+    private CompletableFuture<Result> acquireAndSeckill(Long voucherId, Long userId) {
+        /*
+        限流： 最多等待 1000 毫秒（1 秒）获取令牌，等待期间不占用线程（见 acquirePermit）。
+        如果在超时时间内未能获取到令牌，说明当前请求过多，返回错误信息 "目前网络正忙，请重试"。
+         */
+        return acquirePermit(System.currentTimeMillis() + 1000).thenCompose(acquired -> acquired
+                ? executeSeckill(voucherId, userId)
+                : CompletableFuture.completedFuture(Result.fail("目前网络正忙，请重试")));
+    }
+
+    private CompletableFuture<Result> executeSeckill(Long voucherId, Long userId) {
         /*
          1.执行lua脚本
-         获取用户 ID： 通过 UserHolder.getUser().getId() 获取当前登录用户的 ID。
+        订单 ID 在脚本内生成：与 RedisIdWorker 的格式相同，高位是时间戳（RedisIdWorker.idBase），
+        低 32 位是抢购成功后才 INCR 的当天序列号，售罄、重复下单等被拒绝的请求不多一次 Redis 往返，也不占用序列号。
+        脚本把 用户 -> 订单 ID 记入 seckill:order:id:{voucherId}，对账补发时沿用这个 ID；
+        同时把订单所属的用户记入 seckill:result:{orderId}，查询订单状态时只允许本人查询；
+        Stream 方式下订单还随脚本一起写入 stream:seckill:orders。
          */
-        Long userId = UserHolder.getUser().getId();
+        boolean useStream = "stream".equals(transport);
+        LocalDateTime now = LocalDateTime.now();
+        long orderIdBase = RedisIdWorker.idBase(now);
         /*
-        执行 Lua 脚本： 使用 stringRedisTemplate 的 execute 方法执行预先定义的 Lua 脚本 SECKILL_SCRIPT。
+        执行 Lua 脚本： 通过 Lettuce 异步 API 执行预先定义的 Lua 脚本 SECKILL_SCRIPT（EVALSHA）。
         该脚本的主要功能包括：
+        再次检查活动时间（以当前节点的时间为准，与本地校验保持一致）。
         检查代金券库存是否充足。
         验证用户是否已经参与过此次秒杀（防止重复下单）。
         如果上述条件满足，扣减库存并记录用户的秒杀资格。
         Lua 脚本的执行保证了上述操作的原子性，避免了并发问题。
          */
-        Long r = stringRedisTemplate.execute(
+        return asyncRedisClient.evalLong(
                 SECKILL_SCRIPT,
-                Collections.emptyList(),
                 voucherId.toString(),
-                userId.toString()
-        );
-        /* 2.判断结果
-        结果判断： 将 Lua 脚本的返回值转换为整数 result。根据约定：
-        返回 0 表示秒杀成功。
-        返回 1 表示库存不足。
-        返回 2 表示用户重复下单。
-        处理失败情况： 如果 result 不为 0，根据返回值提供相应的错误提示信息。
-         */
-        int result = r.intValue();
-        if (result != 0) {
-            // 2.1不为0代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "该用户重复下单");
-        }
-        // 2.2为0代表有购买资格,将下单信息保存到阻塞队列
-
-        // 3. 创建订单并发送消息
-        // 订单对象创建： 如果秒杀资格验证通过，创建一个新的 VoucherOrder 对象。
-        VoucherOrder voucherOrder = new VoucherOrder();
-        /*
-         生成订单 ID： 使用 redisIdWorker.nextId("order") 生成全局唯一的订单 ID。
-         redisIdWorker 是一个基于 Redis 实现的分布式 ID 生成器，确保在分布式环境下生成唯一的 ID。
-         */
-
-        long orderId = redisIdWorker.nextId("order");
-        // 设置订单属性： 将生成的订单 ID、用户 ID 和代金券 ID 设置到 voucherOrder 对象中。
-        voucherOrder.setId(orderId);
-        // 用户id
-        voucherOrder.setUserId(userId);
-        // 代金卷id
-        voucherOrder.setVoucherId(voucherId);
-        /*
-        发送消息： 将 voucherOrder 对象转换为 JSON 字符串，
-        将信息放入MQ中
-         */
-        mqSender.sendSeckillMessage(JSON.toJSONString(voucherOrder));
-
-
-        // 返回订单id
-        return Result.ok(orderId);
+                userId.toString(),
+                String.valueOf(System.currentTimeMillis()),
+                String.valueOf(orderIdBase),
+                useStream ? "1" : "",
+                String.valueOf(seckillOrderResults.ttlSeconds()),
+                RedisIdWorker.countKey("order", now)
+        ).thenApplyAsync(r -> {
+            /* 2.判断结果
+            结果判断： Lua 脚本返回值的低 3 位是结果 result，成功时其余位是订单序列号。根据约定：
+            返回 0 表示秒杀成功，订单 ID 为 orderIdBase | 序列号。
+            返回 1 表示库存不足。
+            返回 2 表示用户重复下单。
+            返回 3 表示活动尚未开始，返回 4 表示活动已经结束。
+            处理失败情况： 如果 result 不为 0，根据返回值提供相应的错误提示信息。
+             */
+            int result = (int) (r & 7);
+            if (result == 0 || result == 2) {
+                // 抢购成功或已经抢购过：记入本地去重过滤器，这个用户之后的重复请求在本节点就能拦下
+                seckillPurchaseFilter.record(voucherId, userId);
+            }
+            if (result != 0) {
+                // 2.1不为0代表没有购买资格
+                return failResult(result);
+            }
+            // 2.2为0代表有购买资格
+            long orderId = orderIdBase | (r >>> 3);
+            if (!useStream) {
+                /*
+                 3. 创建订单并发送消息
+                 订单对象创建： 将订单 ID、用户 ID 和代金券 ID 设置到 voucherOrder 对象中。
+                 发送消息： 将 voucherOrder 对象写入本地发件箱后异步放入MQ中，
+                 不等待 broker 确认，丢失的消息由发件箱重发
+                 */
+                VoucherOrder voucherOrder = new VoucherOrder();
+                voucherOrder.setId(orderId);
+                voucherOrder.setUserId(userId);
+                voucherOrder.setVoucherId(voucherId);
+                mqSender.sendSeckillMessage(voucherOrder);
+            }
+            // Stream 方式下订单已经由脚本写入 stream:seckill:orders，由 SeckillStreamConsumer 异步落库
+            // 返回订单id
+            return Result.ok(orderId);
+        }, pipelineExecutor);
 
 //        单机模式下，使用synchronized实现锁
 //        synchronized (userId.toString().intern())
@@ -144,6 +281,96 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
 
+    private static Result failResult(int result) {
+        switch (result) {
+            case 1:
+                return Result.fail("库存不足");
+            case 2:
+                return Result.fail("该用户重复下单");
+            case 3:
+                return Result.fail("秒杀尚未开始");
+            default:
+                return Result.fail("秒杀已经结束");
+        }
+    }
+
+    /**
+     * 非阻塞地获取限流令牌：拿不到时不让线程睡眠等待，而是按令牌的发放间隔定时重试，直到截止时间
+     *
+     * @param deadline 截止时间（毫秒时间戳）
+     */
+    private CompletableFuture<Boolean> acquirePermit(long deadline) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        tryAcquirePermit(future, deadline);
+        return future;
+    }
+
+    private void tryAcquirePermit(CompletableFuture<Boolean> future, long deadline) {
+        if (rateLimiter.tryAcquire()) {
+            future.complete(true);
+            return;
+        }
+        long delay = Math.min(permitRetryMillis(), deadline - System.currentTimeMillis());
+        if (delay <= 0) {
+            future.complete(false);
+            return;
+        }
+        permitRetryExecutor.schedule(() -> tryAcquirePermit(future, deadline), delay, TimeUnit.MILLISECONDS);
+    }
+
+    // 两个令牌之间的间隔
+    private long permitRetryMillis() {
+        return Math.max(1, (long) (1000 / rateLimiter.getRate()));
+    }
+
+    /**
+     * 异步下单：由 MQ 消费者或 Stream 消费者调用，在一个事务中完成一人一单校验、扣减库存和保存订单
+     * 一人一单由 tb_voucher_order 的 (voucher_id, user_id) 唯一索引保证：先用 insertIfAbsent 保存订单，
+     * 插入成功才扣减库存；重复投递的消息影响 0 行，直接返回，不再需要先 count 查询。
+     * 事务结束后把结果写入 SeckillOrderResults，供客户端查询订单状态。
+     */
+    @Override
+    @Transactional
+    public void createSeckillOrder(VoucherOrder voucherOrder) {
+        Long voucherId = voucherOrder.getVoucherId();
+        //5.一人一单：保存订单，重复订单因唯一键冲突不做修改
+        if (getBaseMapper().insertIfAbsent(voucherOrder) == 0) {
+            //用户已经购买过了，或者是同一条消息的重复投递（订单 id 已经存在）
+            log.debug("重复订单，忽略: userId={}, voucherId={}", voucherOrder.getUserId(), voucherId);
+            recordResult(voucherOrder.getId(), getById(voucherOrder.getId()) != null
+                    ? SeckillOrderResults.PERSISTED : SeckillOrderResults.FAILED);
+            return;
+        }
+        log.debug("扣减库存");
+        //6.扣减库存
+        boolean success = seckillVoucherService
+                .update()
+                .setSql("stock = stock-1")
+                .eq("voucher_id", voucherId)
+                .gt("stock", 0)//cas乐观锁
+                .update();
+        if (!success) {
+            log.error("库存不足");
+            //回滚刚刚插入的订单
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            recordResult(voucherOrder.getId(), SeckillOrderResults.FAILED);
+            return;
+        }
+        recordResult(voucherOrder.getId(), SeckillOrderResults.PERSISTED);
+    }
+
+    // 事务结束后记录订单结果：落库成功的订单要等事务提交后才算成功，事务因异常回滚的订单还会重试，不记录
+    private void recordResult(Long orderId, int status) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int completion) {
+                if (completion == STATUS_COMMITTED || status == SeckillOrderResults.FAILED) {
+                    seckillOrderResults.record(orderId, status);
+                }
+            }
+        });
+    }
+
 //    @Transactional
 //    public Result createVoucherOrder(Long voucherId) {
 //        // 一人一单逻辑
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,15 +8,26 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillSchedule;
+import com.hmdp.utils.VoucherChangeEvent;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_TTL;
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
@@ -35,14 +47,75 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
+
+    @Resource
+    private SeckillSchedule seckillSchedule;
+
+    @Resource
+    private CacheClient cacheClient;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
+        // 1. 查询优惠券信息（按店铺缓存）
+        List<Voucher> vouchers = queryVoucherMetaOfShop(shopId);
+        // 2. 秒杀券的库存以 Redis 为准，数据库中的库存要等异步下单落库才会扣减，活动期间一直偏大
+        List<Voucher> seckillVouchers = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (Voucher voucher : vouchers) {
+            // LEFT JOIN 到秒杀信息的才是秒杀券
+            if (voucher.getStock() != null) {
+                seckillVouchers.add(voucher);
+                keys.add(SECKILL_STOCK_KEY + voucher.getId());
+            }
+        }
+        if (!keys.isEmpty()) {
+            // 一次 MGET 取回所有秒杀券的实时库存，Redis 中没有的保留数据库的值
+            List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; stocks != null && i < stocks.size(); i++) {
+                if (stocks.get(i) != null) {
+                    seckillVouchers.get(i).setStock(Integer.valueOf(stocks.get(i)));
+                }
+            }
+        }
+        // 3. 返回结果
         return Result.ok(vouchers);
     }
 
+    /**
+     * 查询店铺的优惠券元数据：先查 Redis，未命中再执行 LEFT JOIN 并写入缓存，没有优惠券的店铺缓存空列表
+     */
+    private List<Voucher> queryVoucherMetaOfShop(Long shopId) {
+        String key = CACHE_VOUCHER_SHOP_KEY + shopId;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        if (json != null) {
+            return JSONUtil.toList(json, Voucher.class);
+        }
+        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 有效期带随机抖动，避免各店铺的优惠券缓存同时过期
+        cacheClient.set(key, vouchers, CACHE_VOUCHER_TTL, TimeUnit.MINUTES);
+        return vouchers;
+    }
+
+    /**
+     * 新增优惠券的事务提交后删除该店铺的优惠券缓存
+     * 排在响应缓存失效之前执行，避免响应缓存被失效后又用旧的元数据重新填充
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onVoucherChange(VoucherChangeEvent event) {
+        stringRedisTemplate.delete(CACHE_VOUCHER_SHOP_KEY + event.getShopId());
+    }
+
+    @Override
+    @Transactional
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        // 事务提交后失效该店铺的优惠券缓存
+        eventPublisher.publishEvent(new VoucherChangeEvent(voucher.getShopId(), voucher.getId()));
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -54,10 +127,9 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
-        //把秒杀信息写入缓存，否则执行seckill.lua的时候找不到缓存，导致与空值比较从而报错
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        //把秒杀库存和活动时间写入缓存，否则执行seckill.lua的时候找不到缓存，导致与空值比较从而报错
+        seckillSchedule.save(seckillVoucher);
         seckillVoucherService.save(seckillVoucher);
-        
-        
+        eventPublisher.publishEvent(new VoucherChangeEvent(voucher.getShopId(), voucher.getId()));
     }
 }
@@ -0,0 +1,190 @@
+package com.hmdp.utils;
+/**
+ * 按接口分组的自适应并发限流（load shedding）。
+ * BulkheadFilter 每条通道的并发上限是固定的，Redis/MySQL 变慢时上限以内的请求都在排队等后端，p99 随之拉长到秒级；
+ * 这里在舱壁之前、RefreshTokenInterceptor 之前按同样的分组（seckill、auth、browse、write）各放一个 AdaptiveConcurrencyLimiter：
+ * 1. 分组内处理中的请求数达到当前上限时直接返回 429，不排队、不访问 Redis，客户端可以马上重试或者放弃；
+ * 2. 请求结束时（同步请求在过滤器链返回后，异步请求在 AsyncListener 中）把处理时间交给限流器调整上限，
+ *    5xx、超时和出错算作失败；
+ * 3. 订单状态长轮询（/voucher-order/status/**）本身就会挂起很久，不参与限流；
+ * 4. 各分组的上限、处理中请求数、拒绝数和 RTT 通过 /metrics/limiters 查看。
+ */
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class AdaptiveConcurrencyFilter extends OncePerRequestFilter {
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    @Value("${hmdp.concurrency-limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.concurrency-limit.initial-limit:20}")
+    private int initialLimit;
+
+    @Value("${hmdp.concurrency-limit.min-limit:4}")
+    private int minLimit;
+
+    @Value("${hmdp.concurrency-limit.max-limit:1000}")
+    private int maxLimit;
+
+    /**
+     * 延迟上涨到无负载 RTT 的多少倍以内不缩小上限
+     */
+    @Value("${hmdp.concurrency-limit.tolerance:1.5}")
+    private double tolerance;
+
+    @Value("${hmdp.concurrency-limit.smoothing:0.2}")
+    private double smoothing;
+
+    /**
+     * 出现 5xx 或超时时上限乘以的系数
+     */
+    @Value("${hmdp.concurrency-limit.backoff-ratio:0.9}")
+    private double backoffRatio;
+
+    @Value("${hmdp.concurrency-limit.min-window-samples:10}")
+    private int minWindowSamples;
+
+    /**
+     * 每隔多少个窗口重新测量一次无负载 RTT
+     */
+    @Value("${hmdp.concurrency-limit.probe-windows:2000}")
+    private int probeWindows;
+
+    private final Map<String, AdaptiveConcurrencyLimiter> limiters = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (String lane : new String[]{BulkheadFilter.LANE_SECKILL, BulkheadFilter.LANE_AUTH,
+                BulkheadFilter.LANE_BROWSE, BulkheadFilter.LANE_WRITE}) {
+            limiters.put(lane, new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, tolerance,
+                    smoothing, backoffRatio, minWindowSamples, probeWindows));
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return path.startsWith("/voucher-order/status/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        AdaptiveConcurrencyLimiter limiter = limiters.get(BulkheadFilter.resolveLane(request));
+        if (!limiter.tryAcquire()) {
+            reject(response);
+            return;
+        }
+        long start = System.nanoTime();
+        // 同步结束和异步回调只能有一个释放许可
+        AtomicBoolean released = new AtomicBoolean();
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleaseListener(limiter, start, released));
+                async = true;
+            }
+        } catch (IOException | ServletException | RuntimeException e) {
+            release(limiter, start, released, true);
+            throw e;
+        }
+        if (!async) {
+            release(limiter, start, released, response.getStatus() >= 500);
+        }
+    }
+
+    /**
+     * 各分组的当前上限、处理中请求数、拒绝数、无负载 RTT 和最近的短期 RTT（毫秒）
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, AdaptiveConcurrencyLimiter> entry : limiters.entrySet()) {
+            AdaptiveConcurrencyLimiter limiter = entry.getValue();
+            Map<String, Object> limiterStats = new LinkedHashMap<>();
+            limiterStats.put("limit", limiter.getLimit());
+            limiterStats.put("inflight", limiter.getInflight());
+            limiterStats.put("shed", limiter.getShed());
+            limiterStats.put("noLoadRttMillis", limiter.getNoLoadRttMillis());
+            limiterStats.put("shortRttMillis", limiter.getShortRttMillis());
+            stats.put(entry.getKey(), limiterStats);
+        }
+        return stats;
+    }
+
+    private static void release(AdaptiveConcurrencyLimiter limiter, long start, AtomicBoolean released, boolean dropped) {
+        if (released.compareAndSet(false, true)) {
+            limiter.release(System.nanoTime() - start, dropped);
+        }
+    }
+
+    private static void reject(HttpServletResponse response) throws IOException {
+        response.setStatus(SC_TOO_MANY_REQUESTS);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail("请求过多，请稍后重试")));
+    }
+
+    /**
+     * 异步请求结束时释放许可
+     */
+    private static final class ReleaseListener implements AsyncListener {
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final long start;
+        private final AtomicBoolean released;
+
+        ReleaseListener(AdaptiveConcurrencyLimiter limiter, long start, AtomicBoolean released) {
+            this.limiter = limiter;
+            this.start = start;
+            this.released = released;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
+            release(limiter, start, released, response != null && response.getStatus() >= 500);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release(limiter, start, released, true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release(limiter, start, released, true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // 异步上下文被再次开启时继续监听
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.hmdp.utils;
+/**
+ * 按观测到的延迟自适应调整的并发上限（梯度算法 + 出错时乘性减小）。
+ * RateLimiter.create(10) 这样的固定上限跟不上 Redis/MySQL 延迟的变化：后端变慢时放进去的请求只会排队，把 p99 拖到秒级；
+ * 后端变快时又白白拒绝了请求。这里只限制同时在处理中的请求数，并根据延迟调整这个上限：
+ * 1. 按窗口更新：每个窗口收集约一个 RTT 内完成的请求（样本数取当前上限，不少于 min-window-samples），
+ *    窗口内的平均延迟作为短期 RTT；探测周期内最小的短期 RTT 作为无负载 RTT，代表后端不排队时的正常延迟；
+ * 2. 梯度 = 无负载 RTT × 容忍系数 / 短期 RTT，限制在 [0.5, 1]：延迟没有明显上涨时梯度为 1，上限按 sqrt(上限) 的余量增长；
+ *    延迟上涨说明请求开始排队，上限按梯度成比例缩小；新上限再做一次平滑，避免抖动；
+ * 3. 窗口内有请求失败（5xx、超时）时上限直接乘以 backoff-ratio；
+ * 4. 后端整体变慢之后旧的无负载 RTT 就过时了：上限一路降到 min-limit 时直接用这时的延迟作为新的无负载 RTT；
+ *    另外每隔 probe-windows 个窗口把上限降到 sqrt(上限) 重新测量一次，处理变慢幅度不大、上限没有降到底的情况；
+ * 5. 窗口内处理中的请求数始终不到上限的一半时不增长，空闲时不会把上限涨得没有意义。
+ * 本类不依赖 Spring 和系统时钟，延迟由调用方传入，便于单独测试。
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AdaptiveConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final double backoffRatio;
+    private final int minWindowSamples;
+    private final int probeWindows;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final LongAdder shed = new LongAdder();
+
+    private volatile double limit;
+
+    // 当前窗口：样本数、延迟总和、是否有失败、处理中请求数的最大值
+    private int windowSamples;
+    private long windowRttSum;
+    private boolean windowDropped;
+    private int windowMaxInflight;
+    // 无负载 RTT、最近一个窗口的短期 RTT（纳秒），0 表示还没有测量
+    private double noLoadRtt;
+    private double shortRtt;
+    private int windowsSinceProbe;
+
+    /**
+     * @param initialLimit     初始上限
+     * @param minLimit         最小上限
+     * @param maxLimit         最大上限
+     * @param tolerance        延迟上涨到无负载 RTT 的多少倍以内不缩小上限，例如 1.5
+     * @param smoothing        每个窗口新上限所占的权重，0~1
+     * @param backoffRatio     请求失败时上限乘以的系数，例如 0.9
+     * @param minWindowSamples 每个窗口最少的样本数
+     * @param probeWindows     每隔多少个窗口重新测量一次无负载 RTT
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance,
+                                      double smoothing, double backoffRatio, int minWindowSamples, int probeWindows) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.backoffRatio = backoffRatio;
+        this.minWindowSamples = minWindowSamples;
+        this.probeWindows = probeWindows;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * 1. 尝试进入：处理中的请求数没有达到上限时计数加一并返回 true，否则返回 false，调用方应立即拒绝请求
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inflight.get();
+            if (current >= (int) limit) {
+                shed.increment();
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 2. 请求结束：计数减一，记录这个请求的延迟，窗口满了之后调整上限
+     *
+     * @param rttNanos 请求的处理时间（纳秒）
+     * @param dropped  请求是否失败（5xx、超时），失败时乘性减小上限
+     */
+    public void release(long rttNanos, boolean dropped) {
+        int current = inflight.getAndDecrement();
+        sample(rttNanos, dropped, current);
+    }
+
+    private synchronized void sample(long rttNanos, boolean dropped, int inflightAtRelease) {
+        windowSamples++;
+        windowMaxInflight = Math.max(windowMaxInflight, inflightAtRelease);
+        if (dropped) {
+            windowDropped = true;
+        } else {
+            windowRttSum += Math.max(0, rttNanos);
+        }
+        if (windowSamples < Math.max(minWindowSamples, (int) limit)) {
+            return;
+        }
+        updateLimit();
+        windowSamples = 0;
+        windowRttSum = 0;
+        windowDropped = false;
+        windowMaxInflight = 0;
+    }
+
+    private void updateLimit() {
+        if (windowDropped) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            return;
+        }
+        shortRtt = (double) windowRttSum / windowSamples;
+        if (shortRtt <= 0) {
+            return;
+        }
+        // 上限已经降到最小值时窗口内几乎没有排队，这时测到的延迟就是后端现在的无负载 RTT
+        if (noLoadRtt == 0 || shortRtt < noLoadRtt || (int) limit <= minLimit) {
+            noLoadRtt = shortRtt;
+        }
+        if (++windowsSinceProbe >= probeWindows) {
+            // 降低并发，下一个窗口重新测量无负载 RTT
+            windowsSinceProbe = 0;
+            noLoadRtt = 0;
+            limit = Math.max(minLimit, Math.sqrt(limit));
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * noLoadRtt / shortRtt));
+        double newLimit = limit * gradient;
+        // 空闲时不增长
+        if (windowMaxInflight >= limit / 2) {
+            newLimit += Math.sqrt(limit);
+        }
+        newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public long getShed() {
+        return shed.sum();
+    }
+
+    /**
+     * 无负载 RTT（毫秒）
+     */
+    public synchronized double getNoLoadRttMillis() {
+        return noLoadRtt / 1_000_000;
+    }
+
+    /**
+     * 短期 RTT（毫秒）
+     */
+    public synchronized double getShortRttMillis() {
+        return shortRtt / 1_000_000;
+    }
+}
@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+/**
+ * AdminInterceptor 只放行 hmdp.admin.user-ids 中配置的用户，用于死信查看、重放、商铺类型刷新等运维接口。
+ * 这些接口会读取其他用户的订单信息、把消息重新投递到队列，只登录（LoginInterceptor）是不够的；
+ * 没有配置管理员时所有请求都被拒绝。
+ */
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+public class AdminInterceptor implements HandlerInterceptor {
+    // 与 ReadinessInterceptor 一样，在 MvcConfig 中手动 new 出来，通过构造函数传入依赖
+    private final Set<Long> adminUserIds;
+
+    public AdminInterceptor(Set<Long> adminUserIds) {
+        this.adminUserIds = adminUserIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // /shop-type/** 不经过 LoginInterceptor，这里自己检查登录
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            response.setStatus(401);
+            return false;
+        }
+        if (!adminUserIds.contains(user.getId())) {
+            // 403：已登录但不是管理员
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
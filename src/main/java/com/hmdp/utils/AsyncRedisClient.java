@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+/**
+ * 基于 Lettuce 异步 API 的 Redis 命令，供秒杀等需要非阻塞调用的路径使用。
+ * StringRedisTemplate 的每条命令都会阻塞调用线程直到 Redis 返回；这里直接使用 Lettuce 的共享连接发出命令，
+ * 立即返回 CompletableFuture，结果在 Lettuce 的 I/O 线程上完成，调用线程不需要等待。
+ * 共享连接由 LettuceConnectionFactory 管理，与 StringRedisTemplate 使用同一条连接，关闭 RedisConnection 不会关闭它。
+ */
+
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+@Component
+public class AsyncRedisClient {
+    private static final byte[][] NO_KEYS = new byte[0][];
+
+    @Resource
+    private RedisConnectionFactory redisConnectionFactory;
+
+    /**
+     * 1. 执行返回整数的 Lua 脚本：先 EVALSHA，Redis 中还没有缓存脚本时改用 EVAL
+     */
+    public CompletableFuture<Long> evalLong(RedisScript<Long> script, String... args) {
+        RedisClusterAsyncCommands<byte[], byte[]> commands = commands();
+        byte[][] values = toBytes(args);
+        CompletableFuture<Long> future = commands.<Long>evalsha(script.getSha1(), ScriptOutputType.INTEGER, NO_KEYS, values)
+                .toCompletableFuture();
+        return future.handle((result, e) -> {
+            if (e == null) {
+                return CompletableFuture.completedFuture(result);
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RedisNoScriptException) {
+                return commands.<Long>eval(script.getScriptAsString(), ScriptOutputType.INTEGER, NO_KEYS, values)
+                        .toCompletableFuture();
+            }
+            CompletableFuture<Long> failed = new CompletableFuture<>();
+            failed.completeExceptionally(cause);
+            return failed;
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * 2. SISMEMBER
+     */
+    public CompletableFuture<Boolean> sismember(String key, String member) {
+        return commands().sismember(toBytes(key), toBytes(member)).toCompletableFuture();
+    }
+
+    /**
+     * 3. HGET，字段不存在时结果为 null
+     */
+    public CompletableFuture<String> hget(String key, String field) {
+        return commands().hget(toBytes(key), toBytes(field)).toCompletableFuture()
+                .thenApply(value -> value == null ? null : new String(value, StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisClusterAsyncCommands<byte[], byte[]> commands() {
+        RedisConnection connection = redisConnectionFactory.getConnection();
+        try {
+            return (RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[][] toBytes(String[] values) {
+        byte[][] bytes = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = toBytes(values[i]);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+/**
+ * 按接口分组隔离的舱壁（bulkhead）。
+ * 原来所有接口共用 Tomcat 的工作线程，秒杀开始时 /voucher-order/** 的请求把线程占满，/shop/**、/blog/** 的浏览请求跟着排队超时，
+ * 一场秒杀拖慢整个应用。这里把请求分成四条通道，每条通道最多同时占用 max-concurrent 个容器线程：
+ * seckill：/voucher-order/**；auth：/user/code、/user/login；browse：其余 GET 请求；write：其余写请求。
+ * 1. 过滤器在容器线程上用信号量做准入，拿不到许可（通道已满）时直接返回 503，不排队；
+ * 2. 拿到许可后在同一个容器线程上继续执行过滤器链，过滤器链和异常处理都和普通请求完全一样，
+ *    FilterChain 只能在容器调用过滤器的线程上使用，不能交给其他线程；
+ * 3. 许可在容器线程返回时释放：处理方法返回 CompletableFuture / DeferredResult 的请求不再占用容器线程，也就不再占用通道；
+ * 4. 每条通道统计处理中、已完成和拒绝的请求数，通过 /metrics/bulkheads 查看。
+ */
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 5)
+public class BulkheadFilter extends OncePerRequestFilter {
+    public static final String LANE_SECKILL = "seckill";
+    public static final String LANE_AUTH = "auth";
+    public static final String LANE_BROWSE = "browse";
+    public static final String LANE_WRITE = "write";
+
+    @Value("${hmdp.bulkhead.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 各通道最多同时占用的容器线程数，四条通道之和应小于 server.tomcat.threads.max（默认 200）
+     */
+    @Value("${hmdp.bulkhead.seckill.max-concurrent:40}")
+    private int seckillMaxConcurrent;
+
+    @Value("${hmdp.bulkhead.auth.max-concurrent:10}")
+    private int authMaxConcurrent;
+
+    @Value("${hmdp.bulkhead.browse.max-concurrent:100}")
+    private int browseMaxConcurrent;
+
+    @Value("${hmdp.bulkhead.write.max-concurrent:30}")
+    private int writeMaxConcurrent;
+
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+
+    /**
+     * 一条通道：并发许可和统计
+     */
+    private static final class Lane {
+        final String name;
+        final int maxConcurrent;
+        final Semaphore permits;
+        final LongAdder completed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+
+        Lane(String name, int maxConcurrent) {
+            this.name = name;
+            this.maxConcurrent = maxConcurrent;
+            this.permits = new Semaphore(maxConcurrent);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        lanes.put(LANE_SECKILL, new Lane(LANE_SECKILL, seckillMaxConcurrent));
+        lanes.put(LANE_AUTH, new Lane(LANE_AUTH, authMaxConcurrent));
+        lanes.put(LANE_BROWSE, new Lane(LANE_BROWSE, browseMaxConcurrent));
+        lanes.put(LANE_WRITE, new Lane(LANE_WRITE, writeMaxConcurrent));
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Lane lane = lanes.get(resolveLane(request));
+        if (!lane.permits.tryAcquire()) {
+            lane.rejected.increment();
+            reject(response);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            lane.permits.release();
+            lane.completed.increment();
+        }
+    }
+
+    /**
+     * 各通道的饱和情况：并发上限、处理中、已完成、拒绝数（通道已满）
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Lane lane : lanes.values()) {
+            Map<String, Object> laneStats = new LinkedHashMap<>();
+            laneStats.put("maxConcurrent", lane.maxConcurrent);
+            laneStats.put("active", lane.maxConcurrent - lane.permits.availablePermits());
+            laneStats.put("completed", lane.completed.sum());
+            laneStats.put("rejected", lane.rejected.sum());
+            stats.put(lane.name, laneStats);
+        }
+        return stats;
+    }
+
+    /**
+     * 按路径和方法判断请求属于哪条通道，AdaptiveConcurrencyFilter 也按同样的分组限流
+     */
+    public static String resolveLane(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith("/voucher-order/")) {
+            return LANE_SECKILL;
+        }
+        if ("/user/code".equals(path) || "/user/login".equals(path)) {
+            return LANE_AUTH;
+        }
+        return "GET".equals(request.getMethod()) ? LANE_BROWSE : LANE_WRITE;
+    }
+
+    private static void reject(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail("服务繁忙，请稍后重试")));
+    }
+}
@@ -5,44 +5,250 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_REFRESH_READ_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_REFRESH_SCHEDULE_KEY;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 
 @Slf4j
 @Component
 public class CacheClient {
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    //    方法1：将任意Java对象序列化为JSON，并存储到String类型的Key中，并可以设置TTL过期时间
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    // Redis 熔断时读路径返回本地保存的最近一次数据，没有时限速查库；写缓存直接跳过
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 缓存重建线程数和队列容量，队列满时放弃本次重建，下一次读到过期数据时再尝试
+     */
+    @Value("${hmdp.executors.cache-rebuild.threads:10}")
+    private int rebuildThreads;
+
+    @Value("${hmdp.executors.cache-rebuild.queue:1000}")
+    private int rebuildQueue;
+
+    private ThreadPoolExecutor cacheRebuildExecutor;
+
+    /**
+     * XFetch 提前刷新的系数，越大越早刷新，0 表示只在过期后重建
+     */
+    @Value("${hmdp.cache.xfetch-beta:1.0}")
+    private double xfetchBeta;
+
+    // 本节点正在重建的锁 key，同一个 key 的重建不会重复提交
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+
+    // 本节点正在处理未命中的 key，同一个 key 的其他读请求等待这一次查库的结果
+    private final Map<String, CompletableFuture<Object>> missLoads = new ConcurrentHashMap<>();
+
+    /**
+     * 未命中时没抢到互斥锁的读请求，最多等待几次、每次多久（毫秒）后重新读缓存，仍未命中才自己查库
+     */
+    @Value("${hmdp.cache.miss-wait.attempts:10}")
+    private int missWaitAttempts;
+
+    @Value("${hmdp.cache.miss-wait.interval-millis:50}")
+    private long missWaitMillis;
+
+    // 各个 key 前缀最近一次观测到的重建耗时（毫秒）
+    private final Map<String, Long> rebuildCost = new ConcurrentHashMap<>();
+
+    /**
+     * 逻辑过期之后过期数据还能继续返回多久（秒），期间由一个后台线程刷新；超过后 key 被 Redis 删除，0 表示不删除
+     */
+    @Value("${hmdp.cache.stale-grace-seconds:600}")
+    private long staleGraceSeconds;
+
+    /**
+     * 有效期随机延长的比例：默认比例，以及按 key 前缀单独配置的比例（"前缀=比例"，逗号分隔）
+     */
+    @Value("${hmdp.cache.ttl-jitter.default-ratio:0.1}")
+    private double defaultJitterRatio;
+
+    @Value("${hmdp.cache.ttl-jitter.prefixes:}")
+    private String jitterPrefixes;
+
+    // 按前缀长度从长到短排列，取最长的匹配
+    private final Map<String, Double> jitterRatios = new LinkedHashMap<>();
+
+    // 登记了定时刷新的 key 前缀 -> 重建方式（参数为去掉前缀的 id 和触发刷新时的逻辑过期时间）
+    private final Map<String, BiConsumer<String, Long>> refreshers = new ConcurrentHashMap<>();
+
+    // 本节点上次上报之后读命中过的、登记了定时刷新的 key，由 CacheRefreshScheduler 批量写入 cache:refresh:read
+    private final Set<String> readSinceReport = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        cacheRebuildExecutor = executorRegistry.register("cache-rebuild", rebuildThreads, rebuildQueue,
+                new ThreadPoolExecutor.AbortPolicy());
+        StrUtil.split(jitterPrefixes, ',', true, true).stream()
+                .map(item -> item.split("="))
+                .filter(pair -> pair.length == 2)
+                .sorted((a, b) -> b[0].trim().length() - a[0].trim().length())
+                .forEach(pair -> jitterRatios.put(pair[0].trim(), Double.valueOf(pair[1].trim())));
+    }
+
+    //    方法1：将任意Java对象序列化为JSON，并存储到String类型的Key中，并可以设置TTL过期时间（带随机抖动）
     public void set(String key, Object value, Long time, TimeUnit timeUnit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, timeUnit);
+        redisCircuitBreaker.write(() -> stringRedisTemplate.opsForValue()
+                .set(key, JSONUtil.toJsonStr(value), jitteredMillis(key, time, timeUnit), TimeUnit.MILLISECONDS));
+    }
+
+    //    缓存空值，防止缓存穿透，有效期同样带抖动
+    public void setNull(String key) {
+        redisCircuitBreaker.write(() -> stringRedisTemplate.opsForValue()
+                .set(key, "", jitteredMillis(key, CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS));
     }
 
     //    方法2：将任意Java对象序列化为JSON，并存储在String类型的Key中，并可以设置逻辑过期时间，用于处理缓存击穿问题
     public void setWithLogicExpire(String key, Object value, Long time, TimeUnit timeUnit) {
+        setWithLogicExpire(key, value, time, timeUnit, 0);
+    }
+
+    //    deltaMillis 是重建这条数据花费的时间，提前刷新时据此决定提前多久
+    public void setWithLogicExpire(String key, Object value, Long time, TimeUnit timeUnit, long deltaMillis) {
+        redisCircuitBreaker.write(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            writeLogicalExpire((StringRedisConnection) connection, key, value, time, timeUnit, deltaMillis);
+            return null;
+        }));
+    }
+
+    //    在 pipeline 中写入逻辑过期格式（RedisData）的数据，预热等需要自己批量写入的场景也用它，保证格式一致：
+    //    逻辑过期时间带抖动，避免批量写入的 key 在同一时刻过期；Redis 中的实际有效期再多出 stale-grace-seconds；
+    //    前缀登记了定时刷新时，把 key 和逻辑过期时间加入刷新调度表，并清除它的读命中标记：
+    //    到期时只有这段时间内被读过的 key 才会被 CacheRefreshScheduler 刷新，没人读的 key 从调度表中移除
+    public void writeLogicalExpire(StringRedisConnection conn, String key, Object value, Long time, TimeUnit timeUnit, long deltaMillis) {
+        long ttlMillis = jitteredMillis(key, time, timeUnit);
+        RedisData<Object> redisData = logicalExpireData(value, ttlMillis, deltaMillis);
+        String json = JSONUtil.toJsonStr(redisData);
+        if (staleGraceSeconds > 0) {
+            conn.pSetEx(key, ttlMillis + TimeUnit.SECONDS.toMillis(staleGraceSeconds), json);
+        } else {
+            conn.set(key, json);
+        }
+        if (refresherPrefixOf(key) != null) {
+            conn.zAdd(CACHE_REFRESH_SCHEDULE_KEY, redisData.getExpireTime(), key);
+            conn.sRem(CACHE_REFRESH_READ_KEY, key);
+        }
+    }
+
+    private static RedisData<Object> logicalExpireData(Object value, long ttlMillis, long deltaMillis) {
         RedisData<Object> redisData = new RedisData<>();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        redisData.setExpireTime(System.currentTimeMillis() + ttlMillis);
+        redisData.setDelta(deltaMillis);
+        return redisData;
+    }
+
+    //    有效期加上随机抖动：实际有效期在 [ttl, ttl × (1 + 比例)] 之间均匀分布，比例按 key 前缀配置
+    public long jitteredMillis(String key, Long time, TimeUnit timeUnit) {
+        long millis = timeUnit.toMillis(time);
+        double ratio = defaultJitterRatio;
+        for (Map.Entry<String, Double> entry : jitterRatios.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                ratio = entry.getValue();
+                break;
+            }
+        }
+        return ratio <= 0 ? millis : millis + (long) (millis * ratio * ThreadLocalRandom.current().nextDouble());
+    }
+
+    //    登记某个前缀的重建方式，写入时加入刷新调度表，到期前由 CacheRefreshScheduler 调用 refresh 重建
+    public <R, ID> void registerRefresher(String keyPrefix, Function<String, ID> idParser, Function<ID, R> dbFallback,
+                                          Long time, TimeUnit timeUnit) {
+        refreshers.put(keyPrefix, (suffix, observedExpireTime) ->
+                rebuildAsync(keyPrefix, idParser.apply(suffix), dbFallback, time, timeUnit, observedExpireTime));
+    }
+
+    //    定时刷新：按登记的重建方式异步重建，仍然经过 rebuildOnce 去重，读请求已经刷新过的 key 会被跳过
+    public void refresh(String key, long observedExpireTime) {
+        String prefix = refresherPrefixOf(key);
+        if (prefix != null) {
+            refreshers.get(prefix).accept(key.substring(prefix.length()), observedExpireTime);
+        }
+    }
+
+    //    读命中时记下 key（只在本地记录，不增加 Redis 访问），定时刷新据此判断 key 是否还有人读
+    private void markRead(String key) {
+        if (refresherPrefixOf(key) != null) {
+            readSinceReport.add(key);
+        }
+    }
+
+    //    取出本节点上次上报之后读命中过的 key，由 CacheRefreshScheduler 写入 cache:refresh:read
+    public List<String> drainReadKeys() {
+        List<String> keys = new ArrayList<>(readSinceReport.size());
+        for (String key : readSinceReport) {
+            if (readSinceReport.remove(key)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private String refresherPrefixOf(String key) {
+        for (String prefix : refreshers.keySet()) {
+            if (key.startsWith(prefix)) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    //    XFetch 提前刷新：在过期前以一定概率提前重建，概率随着接近过期时间、随着重建耗时 delta 变大而升高，
+    //    判断条件为 now - delta × beta × ln(random) >= expireTime。热点 key 在过期前就已被某个请求刷新，
+    //    各个 key 的刷新时间也被打散；数据本身没有记录 delta（预热写入）时用同一前缀最近观测到的重建耗时
+    public boolean shouldRefresh(long expireTime, long deltaMillis) {
+        long now = System.currentTimeMillis();
+        if (expireTime <= now) {
+            return true;
+        }
+        if (deltaMillis <= 0) {
+            return false;
+        }
+        return now - deltaMillis * xfetchBeta * Math.log(ThreadLocalRandom.current().nextDouble()) >= expireTime;
     }
 
     //    3.根据指定的Key查询缓存，并反序列化为指定类型，利用缓存空值的方式解决缓存穿透问题
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
         // 先从Redis中查，这里的常量值是固定的前缀 + 店铺id
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // Redis 不可用时用本地保存的最近一次数据，没有时限速查库，结果只保存在本地
+        String json = redisCircuitBreaker.read(key, () -> stringRedisTemplate.opsForValue().get(key), () -> {
+            R r = redisCircuitBreaker.fallbackToDb(() -> dbFallback.apply(id));
+            String degraded = r == null ? "" : JSONUtil.toJsonStr(r);
+            redisCircuitBreaker.remember(key, degraded);
+            return degraded;
+        });
         // 如果不为空（查询到了），则转为R类型直接返回
         if (StrUtil.isNotBlank(json)) {
             return JSONUtil.toBean(json, type);
@@ -56,7 +262,7 @@ public class CacheClient {
 
         // 查不到，则将空值写入Redis
         if (r == null) {
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
             return null;
         }
         // 查到了则转为json字符串
@@ -67,44 +273,254 @@ public class CacheClient {
         return r;
     }
 
+    //    4.逻辑过期：缓存由预热写入，Redis 中的有效期比逻辑过期时间多出 stale-grace-seconds，过期后先返回旧数据，由一个线程异步重建；
+    //    未命中时（新商铺、或被 update 删除）由 loadOnMiss 查库并写入逻辑过期缓存，查不到则缓存空值，同一个 key 只查一次库
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
-        // 1. 从redis中查询商铺缓存
+        // 1. 从redis中查询商铺缓存，Redis 不可用时用本地保存的最近一次数据（可能已经逻辑过期），没有时限速查库
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2. 如果未命中，则返回空
-        if (StrUtil.isBlank(json)) {
+        String json = redisCircuitBreaker.read(key, () -> stringRedisTemplate.opsForValue().get(key),
+                () -> degradedJson(key, redisCircuitBreaker.fallbackToDb(() -> dbFallback.apply(id)), time, timeUnit));
+        // 2. 命中的是空值，说明数据库中也没有
+        if (json != null && StrUtil.isBlank(json)) {
             return null;
         }
-        // 3. 命中，将json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 4. 判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 5. 未过期，直接返回商铺信息
+        // 3. 未命中，查库并写入逻辑过期缓存
+        if (json == null) {
+            return loadOnMiss(keyPrefix, id, type, dbFallback, time, timeUnit);
+        }
+        // 4. 命中，只解析一次 JSON，过期时间直接是 epoch 毫秒
+        JSONObject redisData = JSONUtil.parseObj(json);
+        R r = redisData.getBean("data", type);
+        markRead(key);
+        // 5. 已经过期或者 XFetch 判断需要提前刷新时异步重建，无论如何都直接返回当前数据
+        long expireTime = expireTimeOf(redisData);
+        if (shouldRefresh(expireTime, deltaOf(keyPrefix, redisData))) {
+            rebuildAsync(keyPrefix, id, dbFallback, time, timeUnit, expireTime);
+        }
+        return r;
+    }
+
+    //    5.批量版本的 queryWithLogicalExpire：一次 MGET 查出所有缓存，过期的逐个异步重建，
+    //    只把未命中的 id 交给 dbFallback 批量查库，再用 pipeline 一次性回写（查不到的写空值），
+    //    返回结果按 ids 的顺序排列，不存在的数据会被跳过
+    public <R, ID> List<R> queryBatchWithLogicalExpire(String keyPrefix, List<ID> ids, Class<R> type,
+                                                       Function<List<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit timeUnit) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> keys = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            keys.add(keyPrefix + id);
+        }
+        List<String> jsons = redisCircuitBreaker.execute(() -> {
+            List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; values != null && i < values.size(); i++) {
+                redisCircuitBreaker.remember(keys.get(i), values.get(i));
+            }
+            return values;
+        }, () -> degradedJsons(keys, ids, dbFallback, time, timeUnit));
+        Map<ID, R> found = new HashMap<>(ids.size());
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            ID id = ids.get(i);
+            String json = jsons == null ? null : jsons.get(i);
+            if (json == null) {
+                missIds.add(id);
+            } else if (StrUtil.isNotBlank(json)) {
+                // 空字符串是缓存的空值，说明数据库中也没有，不再查库
+                JSONObject redisData = JSONUtil.parseObj(json);
+                found.put(id, redisData.getBean("data", type));
+                markRead(keyPrefix + id);
+                long expireTime = expireTimeOf(redisData);
+                if (shouldRefresh(expireTime, deltaOf(keyPrefix, redisData))) {
+                    rebuildAsync(keyPrefix, id, single -> dbFallback.apply(Collections.singletonList(single)).get(single),
+                            time, timeUnit, expireTime);
+                }
+            }
+        }
+        if (!missIds.isEmpty()) {
+            Map<ID, R> loaded = dbFallback.apply(missIds);
+            found.putAll(loaded);
+            redisCircuitBreaker.write(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (ID id : missIds) {
+                    R r = loaded.get(id);
+                    if (r == null) {
+                        conn.pSetEx(keyPrefix + id, jitteredMillis(keyPrefix + id, CACHE_NULL_TTL, TimeUnit.MINUTES), "");
+                    } else {
+                        writeLogicalExpire(conn, keyPrefix + id, r, time, timeUnit, 0);
+                    }
+                }
+                return null;
+            }));
+        }
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    //    逻辑过期缓存未命中时的查库：同一个 key 在本节点只由一个请求查库，其他请求等待它的结果；
+    //    集群内用与重建相同的互斥锁，没抢到锁的节点隔一会儿重新读缓存，等了 miss-wait.attempts 次仍未命中才自己查库
+    @SuppressWarnings("unchecked")
+    private <R, ID> R loadOnMiss(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        String key = keyPrefix + id;
+        CompletableFuture<Object> load = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = missLoads.putIfAbsent(key, load);
+        if (inFlight != null) {
+            return (R) inFlight.join();
+        }
+        try {
+            R r = loadWithLock(keyPrefix, id, type, dbFallback, time, timeUnit);
+            load.complete(r);
             return r;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            missLoads.remove(key, load);
         }
-        // 6. 过期，尝试获取互斥锁
+    }
+
+    private <R, ID> R loadWithLock(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        String key = keyPrefix + id;
         String lockKey = LOCK_SHOP_KEY + id;
-        boolean flag = tryLock(lockKey);
-        // 7. 获取到了锁
-        if (flag) {
-            // 8. 开启独立线程
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+        for (int i = 0; i < missWaitAttempts; i++) {
+            if (BooleanUtil.isTrue(redisCircuitBreaker.execute(() -> tryLock(lockKey), () -> false))) {
+                try {
+                    // 拿到锁后再读一次：其他节点可能刚刚写入，释放了锁
+                    String json = redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().get(key), null);
+                    return json != null ? dataOf(json, type) : loadAndCache(key, id, dbFallback, time, timeUnit);
+                } finally {
+                    redisCircuitBreaker.write(() -> unlock(lockKey));
+                }
+            }
+            try {
+                Thread.sleep(missWaitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            String json = redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().get(key), null);
+            if (json != null) {
+                return dataOf(json, type);
+            }
+        }
+        return loadAndCache(key, id, dbFallback, time, timeUnit);
+    }
+
+    private <R, ID> R loadAndCache(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        R r = dbFallback.apply(id);
+        if (r == null) {
+            setNull(key);
+            return null;
+        }
+        this.setWithLogicExpire(key, r, time, timeUnit);
+        return r;
+    }
+
+    //    逻辑过期格式的缓存中的数据，空字符串（缓存的空值）返回 null
+    private static <R> R dataOf(String json, Class<R> type) {
+        return StrUtil.isBlank(json) ? null : JSONUtil.parseObj(json).getBean("data", type);
+    }
+
+    //    Redis 不可用、本地也没有这条数据时的降级：查库结果按逻辑过期格式只保存在本地，不写 Redis，查不到时保存空值
+    private String degradedJson(String key, Object value, Long time, TimeUnit timeUnit) {
+        String json = value == null ? "" : JSONUtil.toJsonStr(logicalExpireData(value, jitteredMillis(key, time, timeUnit), 0));
+        redisCircuitBreaker.remember(key, json);
+        return json;
+    }
+
+    //    批量版本：本地有的直接用，其余的 id 一次限速查库
+    private <R, ID> List<String> degradedJsons(List<String> keys, List<ID> ids, Function<List<ID>, Map<ID, R>> dbFallback,
+                                               Long time, TimeUnit timeUnit) {
+        List<String> jsons = new ArrayList<>(keys.size());
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String json = redisCircuitBreaker.lastKnown(keys.get(i));
+            jsons.add(json);
+            if (json == null) {
+                missIds.add(ids.get(i));
+            }
+        }
+        if (missIds.isEmpty()) {
+            return jsons;
+        }
+        Map<ID, R> loaded = redisCircuitBreaker.fallbackToDb(() -> dbFallback.apply(missIds));
+        for (int i = 0; i < keys.size(); i++) {
+            if (jsons.get(i) == null) {
+                jsons.set(i, degradedJson(keys.get(i), loaded.get(ids.get(i)), time, timeUnit));
+            }
+        }
+        return jsons;
+    }
+
+    //    拿到互斥锁的线程开启独立线程重建缓存，拿不到锁说明已有线程在重建，直接返回；
+    //    拿到锁后先确认缓存还是触发刷新时读到的那一份：其他节点刚刚刷新完、释放了锁时不再重复重建，
+    //    保证同一份数据在集群内只被重建一次。重建时记录耗时，写入缓存供下一次提前刷新使用
+    private <R, ID> void rebuildAsync(String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit,
+                                      long observedExpireTime) {
+        String key = keyPrefix + id;
+        rebuildOnce(LOCK_SHOP_KEY + id, () -> {
+            String current = redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().get(key), null);
+            if (StrUtil.isNotBlank(current) && expireTimeOf(JSONUtil.parseObj(current)) > observedExpireTime) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            R r = dbFallback.apply(id);
+            long delta = System.currentTimeMillis() - start;
+            rebuildCost.put(keyPrefix, delta);
+            if (r == null) {
+                // 数据已被删除，改为缓存空值，也不再定时刷新
+                setNull(key);
+                return;
+            }
+            this.setWithLogicExpire(key, r, time, timeUnit, delta);
+        });
+    }
+
+    //    旧格式的过期时间不是数字，当作已经过期，下一次重建时换成新格式
+    private static long expireTimeOf(JSONObject redisData) {
+        Object expireTime = redisData.get("expireTime");
+        return expireTime instanceof Number ? ((Number) expireTime).longValue() : 0;
+    }
+
+    private long deltaOf(String keyPrefix, JSONObject redisData) {
+        long delta = redisData.getLong("delta", 0L);
+        return delta > 0 ? delta : rebuildCost.getOrDefault(keyPrefix, 0L);
+    }
+
+    //    6.同一个 key 同时只重建一次：本节点先用内存中的集合去重（同一个 key 已在重建时不再访问 Redis 抢锁），
+    //    再用 Redis 互斥锁保证集群内只有一个节点重建；重建队列满时（缓存雪崩）放弃本次重建并释放锁；
+    //    Redis 熔断期间不重建，继续返回旧数据，恢复后由读请求或定时刷新重建
+    public void rebuildOnce(String lockKey, Runnable rebuild) {
+        if (redisCircuitBreaker.isOpen() || !rebuilding.add(lockKey)) {
+            return;
+        }
+        if (!BooleanUtil.isTrue(redisCircuitBreaker.execute(() -> tryLock(lockKey), () -> false))) {
+            rebuilding.remove(lockKey);
+            return;
+        }
+        try {
+            cacheRebuildExecutor.execute(() -> {
                 try {
-                    R tmp = dbFallback.apply(id);
-                    this.setWithLogicExpire(key, tmp, time, timeUnit);
+                    rebuild.run();
                 } catch (Exception e) {
-                    throw new RuntimeException(e);
+                    log.error("缓存重建失败: {}", lockKey, e);
                 } finally {
-                    unlock(lockKey);
+                    redisCircuitBreaker.write(() -> unlock(lockKey));
+                    rebuilding.remove(lockKey);
                 }
             });
-            // 9. 直接返回商铺信息
-            return r;
+        } catch (RejectedExecutionException e) {
+            log.warn("缓存重建队列已满，放弃本次重建: {}", lockKey);
+            redisCircuitBreaker.write(() -> unlock(lockKey));
+            rebuilding.remove(lockKey);
         }
-        // 10. 未获取到锁，直接返回商铺信息
-        return r;
     }
 
     public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
@@ -130,7 +546,7 @@ public class CacheClient {
             r = dbFallback.apply(id);
             // 查不到，则将空值写入Redis
             if (r == null) {
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                setNull(key);
                 return null;
             }
             // 并存入redis，设置TTL
@@ -0,0 +1,98 @@
+package com.hmdp.utils;
+/**
+ * 逻辑过期缓存的定时刷新。
+ * 预热或批量失效之后成千上万个 key 的过期时间挤在一起，只靠读请求触发重建时，过期的那一刻所有重建同时压到 MySQL。
+ * CacheClient 写入登记了刷新方式的前缀（目前是 cache:shop:）时，把 key 和逻辑过期时间加入 cache:refresh:schedule：
+ * 1. 每隔 interval-millis 执行 cache-refresh-pop.lua，原子地取出 lead-seconds 之内到期的 key，每次最多 batch-size 个，
+ *    多个节点同时执行不会取到同一个 key；到期的 key 再多也只按这个速度刷新，MySQL 的压力被均匀摊开；
+ * 2. 只刷新上次写入之后被读过的 key：读命中时 CacheClient 在本地记下 key，每次执行脚本前先批量写入 cache:refresh:read，
+ *    脚本取出到期的 key 时检查并清除这个标记，没人读的 key 直接从调度表中移除，不再刷新，
+ *    过了 stale-grace-seconds 后被 Redis 删除，下次读到时按未命中处理；
+ * 3. 取出的 key 交给 CacheClient.refresh 异步重建，重建后的新过期时间再次加入调度表；
+ * 4. 来不及刷新而过期的数据在 stale-grace-seconds 内仍然返回，由读请求触发的那一次重建兜底。
+ */
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_REFRESH_READ_KEY;
+
+@Slf4j
+@Component
+public class CacheRefreshScheduler {
+    private static final DefaultRedisScript<List> POP_SCRIPT;
+
+    static {
+        POP_SCRIPT = new DefaultRedisScript<>();
+        POP_SCRIPT.setLocation(new ClassPathResource("cache-refresh-pop.lua"));
+        POP_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.cache.refresh.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 提前多久刷新（秒）
+     */
+    @Value("${hmdp.cache.refresh.lead-seconds:60}")
+    private long leadSeconds;
+
+    /**
+     * 每次最多刷新多少个 key
+     */
+    @Value("${hmdp.cache.refresh.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 检查到期 key 的间隔（毫秒）
+     */
+    @Value("${hmdp.cache.refresh.interval-millis:1000}")
+    private long intervalMillis;
+
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    @PostConstruct
+    public void init() {
+        executorRegistry.scheduleWithFixedDelay("cache-refresh", this::refreshDue, intervalMillis, intervalMillis);
+    }
+
+    public void refreshDue() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<String> readKeys = cacheClient.drainReadKeys();
+            if (!readKeys.isEmpty()) {
+                stringRedisTemplate.opsForSet().add(CACHE_REFRESH_READ_KEY, readKeys.toArray(new String[0]));
+            }
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(leadSeconds);
+            List<?> items = stringRedisTemplate.execute(POP_SCRIPT, Collections.emptyList(),
+                    String.valueOf(deadline), String.valueOf(batchSize));
+            if (items == null) {
+                return;
+            }
+            for (int i = 0; i + 1 < items.size(); i += 2) {
+                cacheClient.refresh(items.get(i).toString(), (long) Double.parseDouble(items.get(i + 1).toString()));
+            }
+        } catch (Exception e) {
+            log.error("缓存定时刷新失败", e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.hmdp.utils;
+/**
+ * 启动时的缓存预热。发布之后缓存都是冷的：cache:shop:* 全部未命中打到 MySQL，
+ * seckill:stock:* 也只有在当前 Redis 上调用过 addSeckillVoucher 才存在。
+ * 预热在 ApplicationRunner 中同步执行，Spring Boot 要等所有 runner 结束才把就绪状态切换为 ACCEPTING_TRAFFIC，
+ * 在此之前 ReadinessInterceptor 对请求直接返回 503，保证流量进来时缓存已经是热的。
+ * 1. 商铺：按销量流式读取 tb_shop，每 batchSize 条交给预热线程池，用 pipeline 以逻辑过期格式批量 SET；
+ * 2. 秒杀库存：正在进行和即将开始的秒杀券交给 SeckillSchedule 写入库存和活动时间表，库存用 SETNX，
+ *    已存在的 key 说明活动正在进行，Redis 中的库存比数据库更新，不能覆盖。
+ * 读取 MySQL 的速度由令牌桶限制，避免预热本身把数据库打满。
+ * 商铺类型由 ShopTypeServiceImpl 在启动时自行加载为本地快照，不在这里处理。
+ */
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CacheWarmUp implements ApplicationRunner {
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private SeckillSchedule seckillSchedule;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    @Value("${hmdp.warmup.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 每批写入 Redis 的条数
+     */
+    @Value("${hmdp.warmup.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 并行写入 Redis 的线程数
+     */
+    @Value("${hmdp.warmup.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 每秒最多从 MySQL 读取的行数
+     */
+    @Value("${hmdp.warmup.rows-per-second:2000}")
+    private double rowsPerSecond;
+
+    /**
+     * 最多预热的商铺数（按销量取前 N 个）
+     */
+    @Value("${hmdp.warmup.shop-limit:100000}")
+    private int shopLimit;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!enabled) {
+            return;
+        }
+        // 预热结束前不接收流量；结束后由 Spring Boot 在所有 runner 执行完时发布 ACCEPTING_TRAFFIC
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        long start = System.currentTimeMillis();
+        RateLimiter rateLimiter = RateLimiter.create(rowsPerSecond);
+        int shops = warmUpShops(rateLimiter);
+        int vouchers = warmUpSeckillStock(rateLimiter);
+        log.info("缓存预热完成：商铺 {} 个，秒杀券 {} 个，耗时 {} ms",
+                shops, vouchers, System.currentTimeMillis() - start);
+    }
+
+    private int warmUpShops(RateLimiter rateLimiter) throws InterruptedException, ExecutionException {
+        // 有界队列 + 调用者执行：写 Redis 跟不上时读取线程自己写，从而放慢读取速度
+        // 预热只执行一次，结束后关闭线程池
+        ThreadPoolExecutor executor = executorRegistry.register("cache-warmup", parallelism, parallelism * 2,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Future<?>> futures = new ArrayList<>();
+        int[] total = {0};
+        try {
+            List<List<Shop>> pending = new ArrayList<>(1);
+            pending.add(new ArrayList<>(batchSize));
+            shopMapper.streamHotShops(shopLimit, context -> {
+                rateLimiter.acquire();
+                List<Shop> batch = pending.get(0);
+                batch.add(context.getResultObject());
+                total[0]++;
+                if (batch.size() >= batchSize) {
+                    futures.add(executor.submit(() -> writeShops(batch)));
+                    pending.set(0, new ArrayList<>(batchSize));
+                }
+            });
+            if (!pending.get(0).isEmpty()) {
+                List<Shop> batch = pending.get(0);
+                futures.add(executor.submit(() -> writeShops(batch)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return total[0];
+    }
+
+    private void writeShops(List<Shop> shops) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : shops) {
+                cacheClient.writeLogicalExpire(conn, CACHE_SHOP_KEY + shop.getId(), shop, CACHE_SHOP_TTL, TimeUnit.MINUTES, 0);
+            }
+            return null;
+        });
+    }
+
+    private int warmUpSeckillStock(RateLimiter rateLimiter) {
+        // 秒杀券数量很少，整体只占一次令牌
+        rateLimiter.acquire(batchSize);
+        return seckillSchedule.preloadUpcoming(batchSize);
+    }
+}
@@ -0,0 +1,245 @@
+package com.hmdp.utils;
+/**
+ * 统一管理应用内的后台线程池。
+ * 原来 CacheClient、ShopServiceImpl 各自用 Executors.newFixedThreadPool(10) 创建线程池：队列无界，缓存雪崩时重建任务无限堆积；
+ * 线程没有名字，应用关闭时也不会停止，运行情况无从查看。通过这里创建的线程池：
+ * 1. 有名字，线程名为 {name}-{序号}，队列有界，队列满时按注册时给定的拒绝策略处理，并统计拒绝次数；
+ * 2. 统计每个任务的排队时间和执行时间，与活跃线程数、队列深度一起通过 /metrics/executors 查看；
+ * 3. 应用关闭时统一 shutdown，最多等待 shutdown-timeout-seconds 让已提交的任务执行完，超时后 shutdownNow 中断剩余任务。
+ * 定时重试这类很短的延时任务用 registerScheduled 创建的定时线程池，同样有名字、同样在关闭时统一停止。
+ * 周期性的后台任务（熔断探测、对账、缓存刷新等）不用 @Scheduled：Spring 默认的调度器只有一个线程，
+ * 一个任务执行得慢（例如查库的对账、等待 Redis 超时的刷新）会推迟其他所有任务，其中包括唯一能关闭 Redis 熔断的探测。
+ * 这些任务通过 scheduleWithFixedDelay / scheduleAtFixedRate 各自运行在一个单线程的定时线程池上，互不阻塞。
+ */
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+@Slf4j
+@Component
+public class ExecutorRegistry {
+
+    /**
+     * 应用关闭时等待线程池中任务执行完的最长时间（秒）
+     */
+    @Value("${hmdp.executors.shutdown-timeout-seconds:10}")
+    private long shutdownTimeoutSeconds;
+
+    private final Map<String, InstrumentedExecutor> executors = new ConcurrentHashMap<>();
+
+    private final Map<String, ScheduledThreadPoolExecutor> scheduledExecutors = new ConcurrentHashMap<>();
+
+    /**
+     * 1. 创建并登记一个固定大小的线程池
+     *
+     * @param name          线程池名称，同时作为线程名前缀，不能重复
+     * @param threads       线程数
+     * @param queueCapacity 队列容量，0 表示不排队（没有空闲线程时直接拒绝）
+     * @param handler       队列满时的拒绝策略
+     */
+    public ThreadPoolExecutor register(String name, int threads, int queueCapacity, RejectedExecutionHandler handler) {
+        InstrumentedExecutor executor = new InstrumentedExecutor(name, threads, queueCapacity, handler);
+        if (scheduledExecutors.containsKey(name) || executors.putIfAbsent(name, executor) != null) {
+            executor.shutdown();
+            throw new IllegalStateException("线程池名称重复: " + name);
+        }
+        return executor;
+    }
+
+    /**
+     * 2. 创建并登记一个定时线程池，只用于很短的延时任务（例如按间隔重试），不统计排队和执行时间
+     *
+     * @param name    线程池名称，同时作为线程名前缀，不能重复
+     * @param threads 线程数
+     */
+    public ScheduledThreadPoolExecutor registerScheduled(String name, int threads) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, newThreadFactory(name));
+        executor.setRemoveOnCancelPolicy(true);
+        if (executors.containsKey(name) || scheduledExecutors.putIfAbsent(name, executor) != null) {
+            executor.shutdown();
+            throw new IllegalStateException("线程池名称重复: " + name);
+        }
+        return executor;
+    }
+
+    /**
+     * 3. 在名为 name 的单线程定时线程池上，每次执行结束后间隔 delayMillis 再执行 task；
+     * task 抛出异常时记录日志，之后照常执行（ScheduledThreadPoolExecutor 默认会停止执行抛出异常的任务）
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(String name, Runnable task, long initialDelayMillis, long delayMillis) {
+        return registerScheduled(name, 1).scheduleWithFixedDelay(logErrors(name, task),
+                initialDelayMillis, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 4. 在名为 name 的单线程定时线程池上，按 periodMillis 的固定频率执行 task，异常处理同 scheduleWithFixedDelay
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(String name, Runnable task, long initialDelayMillis, long periodMillis) {
+        return registerScheduled(name, 1).scheduleAtFixedRate(logErrors(name, task),
+                initialDelayMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 5. 各线程池的运行情况：线程数、活跃线程、排队数、队列容量、已完成、拒绝数、平均/最大排队时间和平均执行时间（毫秒）
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new TreeMap<>();
+        for (InstrumentedExecutor executor : executors.values()) {
+            Map<String, Object> executorStats = new LinkedHashMap<>();
+            executorStats.put("threads", executor.getMaximumPoolSize());
+            executorStats.put("active", executor.getActiveCount());
+            executorStats.put("queued", executor.getQueue().size());
+            executorStats.put("queueCapacity", executor.queueCapacity);
+            executorStats.put("completed", executor.getCompletedTaskCount());
+            executorStats.put("rejected", executor.rejected.sum());
+            long tasks = executor.tasks.sum();
+            executorStats.put("avgQueueWaitMillis", tasks == 0 ? 0 : executor.queueWaitNanos.sum() / tasks / 1_000_000.0);
+            executorStats.put("maxQueueWaitMillis", executor.maxQueueWaitNanos.get() / 1_000_000.0);
+            executorStats.put("avgRunMillis", tasks == 0 ? 0 : executor.runNanos.sum() / tasks / 1_000_000.0);
+            stats.put(executor.name, executorStats);
+        }
+        for (Map.Entry<String, ScheduledThreadPoolExecutor> entry : scheduledExecutors.entrySet()) {
+            ScheduledThreadPoolExecutor executor = entry.getValue();
+            Map<String, Object> executorStats = new LinkedHashMap<>();
+            executorStats.put("threads", executor.getCorePoolSize());
+            executorStats.put("active", executor.getActiveCount());
+            executorStats.put("scheduled", executor.getQueue().size());
+            executorStats.put("completed", executor.getCompletedTaskCount());
+            stats.put(entry.getKey(), executorStats);
+        }
+        return stats;
+    }
+
+    /**
+     * 6. 应用关闭：先停止接收新任务，等待已提交的任务执行完，超时后中断
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        Map<String, ThreadPoolExecutor> all = new LinkedHashMap<>(executors);
+        all.putAll(scheduledExecutors);
+        for (ThreadPoolExecutor executor : all.values()) {
+            executor.shutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        for (Map.Entry<String, ThreadPoolExecutor> entry : all.entrySet()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !entry.getValue().awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                List<Runnable> dropped = entry.getValue().shutdownNow();
+                log.warn("线程池 {} 未能在 {} 秒内停止，丢弃 {} 个排队中的任务", entry.getKey(), shutdownTimeoutSeconds, dropped.size());
+            }
+        }
+    }
+
+    private static Runnable logErrors(String name, Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("定时任务 {} 执行失败", name, e);
+            }
+        };
+    }
+
+    private static ThreadFactory newThreadFactory(String name) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 记录排队时间和执行时间的线程池
+     */
+    private static final class InstrumentedExecutor extends ThreadPoolExecutor {
+        final String name;
+        final int queueCapacity;
+        final LongAdder rejected = new LongAdder();
+        final LongAdder tasks = new LongAdder();
+        final LongAdder queueWaitNanos = new LongAdder();
+        final LongAdder runNanos = new LongAdder();
+        final LongAccumulator maxQueueWaitNanos = new LongAccumulator(Math::max, 0);
+        private final ThreadLocal<Long> startedAt = new ThreadLocal<>();
+
+        InstrumentedExecutor(String name, int threads, int queueCapacity, RejectedExecutionHandler handler) {
+            super(threads, threads, 0L, TimeUnit.MILLISECONDS, newQueue(queueCapacity), newThreadFactory(name), handler);
+            this.name = name;
+            this.queueCapacity = queueCapacity;
+            setRejectedExecutionHandler((r, executor) -> {
+                rejected.increment();
+                handler.rejectedExecution(r, executor);
+            });
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new TimedTask(command));
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            long now = System.nanoTime();
+            if (r instanceof TimedTask) {
+                long wait = now - ((TimedTask) r).submittedAt;
+                queueWaitNanos.add(wait);
+                maxQueueWaitNanos.accumulate(wait);
+            }
+            startedAt.set(now);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            Long start = startedAt.get();
+            if (start != null) {
+                runNanos.add(System.nanoTime() - start);
+                startedAt.remove();
+            }
+            tasks.increment();
+            if (t != null) {
+                log.error("线程池 {} 中的任务执行失败", name, t);
+            }
+        }
+
+        private static BlockingQueue<Runnable> newQueue(int queueCapacity) {
+            return queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>();
+        }
+    }
+
+    /**
+     * 带提交时间的任务
+     */
+    private static final class TimedTask implements Runnable {
+        final Runnable delegate;
+        final long submittedAt = System.nanoTime();
+
+        TimedTask(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            delegate.run();
+        }
+    }
+}
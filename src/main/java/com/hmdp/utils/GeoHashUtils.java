@@ -0,0 +1,121 @@
+package com.hmdp.utils;
+
+/**
+ * 经纬度网格（geohash）相关的计算工具。
+ * 把经度 [-180, 180)、纬度 [-90, 90) 各自等分为 2^step 份，
+ * 一个 (经度格子下标, 纬度格子下标) 就是一个 geohash 网格；距离计算与 Redis GEO 使用相同的地球半径，保证结果一致。
+ */
+public class GeoHashUtils {
+    // Redis GEO 使用的地球半径，单位米
+    public static final double EARTH_RADIUS_IN_METERS = 6372797.560856;
+
+    public static final double LON_MIN = -180;
+    public static final double LON_MAX = 180;
+    public static final double LAT_MIN = -90;
+    public static final double LAT_MAX = 90;
+    // 与 Redis GEO 相同的最大精度：经纬度各 26 位，交织后 52 位
+    public static final int MAX_STEP = 26;
+
+    private GeoHashUtils() {
+    }
+
+    /**
+     * 经度所在的网格下标
+     */
+    public static long lonIndex(double lon, int step) {
+        return index(lon, LON_MIN, LON_MAX, step);
+    }
+
+    /**
+     * 纬度所在的网格下标
+     */
+    public static long latIndex(double lat, int step) {
+        return index(lat, LAT_MIN, LAT_MAX, step);
+    }
+
+    /**
+     * 网格中心点的经度
+     */
+    public static double lonCenter(long lonIndex, int step) {
+        return LON_MIN + (lonIndex + 0.5) * (LON_MAX - LON_MIN) / (1L << step);
+    }
+
+    /**
+     * 网格中心点的纬度
+     */
+    public static double latCenter(long latIndex, int step) {
+        return LAT_MIN + (latIndex + 0.5) * (LAT_MAX - LAT_MIN) / (1L << step);
+    }
+
+    /**
+     * 网格对角线长度的一半（米），即网格内任意一点到中心点的最大距离
+     */
+    public static double cellHalfDiagonal(long latIndex, int step) {
+        double lonSpan = (LON_MAX - LON_MIN) / (1L << step);
+        double latSpan = (LAT_MAX - LAT_MIN) / (1L << step);
+        double lat = latCenter(latIndex, step);
+        // 取靠近赤道一侧的纬线计算经度方向跨度，保证是上界
+        double nearEquator = Math.max(0, Math.abs(lat) - latSpan / 2);
+        return distance(0, nearEquator, lonSpan / 2, nearEquator + latSpan / 2);
+    }
+
+    /**
+     * 按 step 精度计算经纬度的 geohash：经度位与纬度位从高位开始交织，共 2 * step 位
+     */
+    public static long encode(double lon, double lat, int step) {
+        return interleave(lonIndex(lon, step), latIndex(lat, step), step);
+    }
+
+    /**
+     * 把经度、纬度网格下标交织为 geohash
+     */
+    public static long interleave(long lonIndex, long latIndex, int step) {
+        long hash = 0;
+        for (int i = step - 1; i >= 0; i--) {
+            hash = (hash << 1) | ((lonIndex >>> i) & 1);
+            hash = (hash << 1) | ((latIndex >>> i) & 1);
+        }
+        return hash;
+    }
+
+    /**
+     * 选出网格边长不小于 radius 的最大精度，这样以用户所在网格为中心的 3x3 网格一定覆盖整个搜索圆
+     *
+     * @param radius 搜索半径（米）
+     * @param lat    用户纬度，经度方向的网格宽度随纬度升高而变窄
+     */
+    public static int stepForRadius(double radius, double lat) {
+        int step = MAX_STEP;
+        while (step > 1) {
+            double latSpan = (LAT_MAX - LAT_MIN) / (1L << step);
+            double lonSpan = (LON_MAX - LON_MIN) / (1L << step);
+            double latMeters = Math.toRadians(latSpan) * EARTH_RADIUS_IN_METERS;
+            // 以相邻网格中离极点最近的纬线计算经度方向宽度，保证是下界
+            double edgeLat = Math.min(LAT_MAX, Math.abs(lat) + 2 * latSpan);
+            double lonMeters = Math.toRadians(lonSpan) * EARTH_RADIUS_IN_METERS * Math.cos(Math.toRadians(edgeLat));
+            if (latMeters >= radius && lonMeters >= radius) {
+                break;
+            }
+            step--;
+        }
+        return step;
+    }
+
+    /**
+     * 两点之间的球面距离（haversine 公式），单位米
+     */
+    public static double distance(double lon1, double lat1, double lon2, double lat2) {
+        double lat1r = Math.toRadians(lat1);
+        double lat2r = Math.toRadians(lat2);
+        double u = Math.sin((lat2r - lat1r) / 2);
+        double v = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        return 2.0 * EARTH_RADIUS_IN_METERS * Math.asin(Math.sqrt(u * u + Math.cos(lat1r) * Math.cos(lat2r) * v * v));
+    }
+
+    private static long index(double value, double min, double max, int step) {
+        long cells = 1L << step;
+        long i = (long) Math.floor((value - min) / (max - min) * cells);
+        // 边界值（例如经度 180）归入最后一个格子
+        return Math.min(Math.max(i, 0), cells - 1);
+    }
+}
@@ -0,0 +1,32 @@
+package com.hmdp.utils;
+/**
+ * ReadinessInterceptor 在应用就绪（ReadinessState.ACCEPTING_TRAFFIC）之前拒绝所有请求。
+ * Tomcat 在 ApplicationRunner 执行之前就已经开始监听端口，而缓存预热等启动任务都在 runner 中完成，
+ * 如果不拦截，预热期间进来的请求会全部穿透到 MySQL。
+ */
+
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class ReadinessInterceptor implements HandlerInterceptor {
+    // 与 RefreshTokenInterceptor 一样，在 MvcConfig 中手动 new 出来，通过构造函数传入依赖
+    private final ApplicationAvailability applicationAvailability;
+
+    public ReadinessInterceptor(ApplicationAvailability applicationAvailability) {
+        this.applicationAvailability = applicationAvailability;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (applicationAvailability.getReadinessState() != ReadinessState.ACCEPTING_TRAFFIC) {
+            // 503：服务暂不可用，前面的负载均衡/客户端可以稍后重试
+            response.setStatus(503);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,253 @@
+package com.hmdp.utils;
+/**
+ * Redis 访问的熔断器，带本地最近一次正确数据（last-known-good）缓存。
+ * Redis 变慢时 RefreshTokenInterceptor、CacheClient、isBlogLiked 等每条路径都要等到 Lettuce 命令超时，
+ * 请求线程全部卡在 Redis 上，整个应用跟着不可用。经过这里访问 Redis：
+ * 1. CLOSED：正常访问 Redis，调用失败或耗时超过 slow-call-millis 算一次失败，连续失败 failure-threshold 次后进入 OPEN；
+ * 2. OPEN：不再访问 Redis，读路径直接返回本地保存的最近一次读到的数据（可能已经过期），没有时交给调用方的降级逻辑，
+ *    需要查库的降级经过 fallbackToDb，按 db-fallback-per-second 限速，超过时抛出 UnavailableException，避免把压力整体转到 MySQL；
+ *    写操作直接跳过；
+ * 3. 进入 OPEN 满 open-millis 之后由定时任务 probe（独立的 redis-breaker-probe 线程）发一次 PING（HALF_OPEN），按时成功则恢复 CLOSED，失败或仍然很慢则重新计时；
+ * 4. 状态、各类调用次数、本地数据命中和查库降级次数通过 /metrics/redis 查看。
+ * 本类不依赖 Spring，PING 和时钟由调用方传入，便于用注入延迟的 Redis 替身单独测试。
+ */
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+@Slf4j
+public class RedisCircuitBreaker {
+    public static final String CLOSED = "CLOSED";
+    public static final String OPEN = "OPEN";
+    public static final String HALF_OPEN = "HALF_OPEN";
+
+    private final int failureThreshold;
+    private final long slowCallMillis;
+    private final long openMillis;
+    private final BooleanSupplier ping;
+    private final LongSupplier clock;
+
+    // 读路径最近一次从 Redis 读到的数据
+    private final Cache<String, Object> lastKnownGood;
+    // 熔断期间查库降级的限速
+    private final RateLimiter dbFallbackLimiter;
+
+    private volatile String state = CLOSED;
+    private volatile long openedAt;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder slowCalls = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder opens = new LongAdder();
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder dbFallbacks = new LongAdder();
+    private final LongAdder dbRejected = new LongAdder();
+
+    /**
+     * @param failureThreshold    连续失败（出错或慢调用）多少次后熔断
+     * @param slowCallMillis      耗时超过多少毫秒算慢调用
+     * @param openMillis          熔断多久之后开始探测 Redis 是否恢复（毫秒）
+     * @param localMaxEntries     本地最多保存多少个 key 的最近一次数据
+     * @param localTtlSeconds     本地数据最多保存多久（秒）
+     * @param dbFallbackPerSecond 熔断期间每秒最多查库多少次
+     * @param ping                探测 Redis 是否恢复，返回 true 表示可用
+     * @param clock               当前时间（毫秒）
+     */
+    public RedisCircuitBreaker(int failureThreshold, long slowCallMillis, long openMillis, long localMaxEntries,
+                               long localTtlSeconds, double dbFallbackPerSecond, BooleanSupplier ping, LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+        this.ping = ping;
+        this.clock = clock;
+        this.lastKnownGood = CacheBuilder.newBuilder()
+                .maximumSize(localMaxEntries)
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .build();
+        this.dbFallbackLimiter = RateLimiter.create(dbFallbackPerSecond);
+    }
+
+    /**
+     * 1. 访问 Redis：熔断时不访问，直接返回 fallback 的结果；调用出错时记一次失败并返回 fallback 的结果，
+     * 调用成功但太慢时记一次失败，结果照常返回
+     *
+     * @param redisCall Redis 访问
+     * @param fallback  Redis 不可用时的降级结果，为 null 时返回 null
+     */
+    public <T> T execute(Supplier<T> redisCall, Supplier<T> fallback) {
+        if (!CLOSED.equals(state)) {
+            shortCircuited.increment();
+            return fallback == null ? null : fallback.get();
+        }
+        calls.increment();
+        long start = clock.getAsLong();
+        T result;
+        try {
+            result = redisCall.get();
+        } catch (RuntimeException e) {
+            failures.increment();
+            log.warn("Redis 访问失败: {}", e.toString());
+            onFailure();
+            return fallback == null ? null : fallback.get();
+        }
+        if (clock.getAsLong() - start >= slowCallMillis) {
+            slowCalls.increment();
+            onFailure();
+        } else {
+            consecutiveFailures.set(0);
+        }
+        return result;
+    }
+
+    /**
+     * 2. 读路径：成功读到的数据保存到本地；Redis 不可用时先返回本地保存的最近一次数据，没有时再用 fallback
+     *
+     * @param key       本地保存数据用的 key，一般就是 Redis key
+     * @param redisRead Redis 读取，返回 null 表示 Redis 中没有
+     * @param fallback  Redis 不可用且本地也没有时的降级结果，为 null 时返回 null
+     */
+    public <T> T read(String key, Supplier<T> redisRead, Supplier<T> fallback) {
+        return execute(() -> {
+            T value = redisRead.get();
+            remember(key, value);
+            return value;
+        }, () -> {
+            T last = lastKnown(key);
+            if (last != null) {
+                return last;
+            }
+            return fallback == null ? null : fallback.get();
+        });
+    }
+
+    /**
+     * 3. 写操作：熔断时跳过，出错时只记失败
+     */
+    public void write(Runnable redisWrite) {
+        execute(() -> {
+            redisWrite.run();
+            return null;
+        }, null);
+    }
+
+    /**
+     * 4. Redis 不可用时的查库降级，按 db-fallback-per-second 限速，超过时抛出 UnavailableException
+     */
+    public <T> T fallbackToDb(Supplier<T> dbQuery) {
+        if (!dbFallbackLimiter.tryAcquire()) {
+            dbRejected.increment();
+            throw new UnavailableException();
+        }
+        dbFallbacks.increment();
+        return dbQuery.get();
+    }
+
+    /**
+     * 保存某个 key 最近一次的正确数据，null 不保存
+     */
+    public void remember(String key, Object value) {
+        if (value != null) {
+            lastKnownGood.put(key, value);
+        }
+    }
+
+    /**
+     * 本地保存的某个 key 最近一次的数据，没有时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T lastKnown(String key) {
+        T last = (T) lastKnownGood.getIfPresent(key);
+        if (last != null) {
+            localHits.increment();
+        }
+        return last;
+    }
+
+    /**
+     * 5. 熔断满 open-millis 后探测 Redis：PING 按时成功则恢复，否则重新计时
+     */
+    public void probe() {
+        if (!OPEN.equals(state) || clock.getAsLong() - openedAt < openMillis) {
+            return;
+        }
+        state = HALF_OPEN;
+        long start = clock.getAsLong();
+        boolean ok;
+        try {
+            // PING 成功但仍然很慢时也不恢复
+            ok = ping.getAsBoolean() && clock.getAsLong() - start < slowCallMillis;
+        } catch (RuntimeException e) {
+            ok = false;
+        }
+        if (ok) {
+            consecutiveFailures.set(0);
+            state = CLOSED;
+            log.info("Redis 已恢复，关闭熔断");
+        } else {
+            openedAt = clock.getAsLong();
+            state = OPEN;
+        }
+    }
+
+    public boolean isOpen() {
+        return !CLOSED.equals(state);
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * 6. 状态和统计：调用、失败、慢调用、熔断跳过、熔断次数、本地数据命中、查库降级及被限速的次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state);
+        stats.put("consecutiveFailures", consecutiveFailures.get());
+        stats.put("calls", calls.sum());
+        stats.put("failures", failures.sum());
+        stats.put("slowCalls", slowCalls.sum());
+        stats.put("shortCircuited", shortCircuited.sum());
+        stats.put("opens", opens.sum());
+        stats.put("localHits", localHits.sum());
+        stats.put("localEntries", lastKnownGood.size());
+        stats.put("dbFallbacks", dbFallbacks.sum());
+        stats.put("dbRejected", dbRejected.sum());
+        return stats;
+    }
+
+    private void onFailure() {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && CLOSED.equals(state)) {
+            synchronized (this) {
+                if (CLOSED.equals(state)) {
+                    openedAt = clock.getAsLong();
+                    state = OPEN;
+                    opens.increment();
+                    log.warn("Redis 连续 {} 次调用失败或超时，开启熔断", consecutiveFailures.get());
+                }
+            }
+        }
+    }
+
+    /**
+     * Redis 不可用，本地没有可用数据，查库降级也已达到上限
+     */
+    public static class UnavailableException extends RuntimeException {
+        public UnavailableException() {
+            super("Redis 不可用，查库降级已达到上限");
+        }
+    }
+}
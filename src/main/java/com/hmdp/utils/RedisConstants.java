@@ -11,15 +11,30 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
-    public static final String CACHE_SHOP_TYPE_KEY = "cache:shoptype:";
+    public static final Long CACHE_VOUCHER_TTL = 30L;
+    public static final String CACHE_VOUCHER_SHOP_KEY = "cache:voucher:shop:";
+    public static final String CACHE_REFRESH_SCHEDULE_KEY = "cache:refresh:schedule";
+    public static final String CACHE_REFRESH_READ_KEY = "cache:refresh:read";
+
+    public static final String SHOP_TYPE_CHANGE_TOPIC = "topic:shoptype:change";
+    public static final String RESPONSE_CACHE_EVICT_TOPIC = "topic:response-cache:evict";
+    public static final String SECKILL_RESULT_TOPIC = "topic:seckill:result";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_SCHEDULE_KEY = "seckill:schedule:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_ID_KEY = "seckill:order:id:";
+    public static final String SECKILL_RESEND_KEY = "seckill:order:resend:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream:seckill:orders";
+    public static final String SECKILL_QUEUE_TICKET_KEY = "seckill:queue:ticket:";
+    public static final String SECKILL_RESULT_KEY = "seckill:result:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_SHADOW_KEY = "shop:geo:shadow:";
     public static final String USER_SIGN_KEY = "sign:";
     public static final String SENDCODE_SENDTIME_KEY ="sms:sendtime:";
 
@@ -2,10 +2,11 @@ package com.hmdp.utils;
 
 import lombok.Data;
 
-import java.time.LocalDateTime;
-
 @Data
 public class RedisData<T> {
-    private LocalDateTime expireTime;
+    // 逻辑过期时间（epoch 毫秒），判断是否过期时不必再解析日期
+    private long expireTime;
+    // 上一次重建这条缓存花费的时间（毫秒），用于提前刷新；预热写入的数据为 0
+    private long delta;
     private T data;
 }
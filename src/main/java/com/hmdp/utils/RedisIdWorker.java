@@ -60,4 +60,26 @@ public class RedisIdWorker {
         // 3. 拼接并返回，简单位运算
         return timeStamp << COUNT_BIT | count;
     }
+
+    /**
+     * idBase 方法：订单 id 的高位，即时间戳左移 32 位，低 32 位留给序列号。
+     * 秒杀下单时序列号由 seckill.lua 在抢购成功后自增，id 的拼接在脚本内完成，失败的请求不占用序列号
+     *
+     * @param now
+     * @return
+     */
+    public static long idBase(LocalDateTime now) {
+        return (now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP) << COUNT_BIT;
+    }
+
+    /**
+     * countKey 方法：与 nextId 相同的当天序列号 key
+     *
+     * @param keyPrefix
+     * @param now
+     * @return
+     */
+    public static String countKey(String keyPrefix, LocalDateTime now) {
+        return "inc:" + keyPrefix + ":" + now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+    }
 }
@@ -3,32 +3,59 @@ package com.hmdp.utils;
  * RefreshTokenInterceptor 是一个实现了 HandlerInterceptor 接口的拦截器，
  * 主要用于在每次 HTTP 请求时，检查并刷新用户的登录状态，
  * 确保用户在活跃期间不会因 Token 过期而被强制登出。
+ * Redis 访问经过 RedisCircuitBreaker：Redis 熔断时使用本地保存的最近一次登录信息，没有时按未登录处理，
+ * 刷新有效期的写操作直接跳过。本地登录信息只在最后一次从 Redis 读到之后的 session-max-stale-seconds 内有效，
+ * 且不超过 Redis 中 token 本身的有效期（LOGIN_USER_TTL），不会让已经过期的登录一直可用。
  */
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
     // 这里并不是自动装配，因为RefreshTokenInterceptor是我们手动在WebConfig里new出来的
     private final StringRedisTemplate stringRedisTemplate;
 
+    private final RedisCircuitBreaker redisCircuitBreaker;
+
+    // 本地登录信息从最后一次读到 Redis 起的最长可用时间（毫秒）
+    private final long sessionMaxStaleMillis;
+
+    /**
+     * 本地保存的登录信息及其可用截止时间
+     */
+    private static final class LocalSession {
+        final Map<Object, Object> userMap;
+        final long expiresAt;
+
+        LocalSession(Map<Object, Object> userMap, long expiresAt) {
+            this.userMap = userMap;
+            this.expiresAt = expiresAt;
+        }
+    }
+
     /**
      * 该构造函数接收一个 StringRedisTemplate 对象，用于与 Redis 进行交互。
      * 由于 RefreshTokenInterceptor 是在 WebConfig 中手动实例化的，
      * s因此需要通过构造函数注入 StringRedisTemplate。
      *
      * @param stringRedisTemplate
+     * @param redisCircuitBreaker
+     * @param sessionMaxStaleSeconds Redis 熔断时本地登录信息最多使用多久（秒），从最后一次读到 Redis 开始计算
      */
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
+    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate, RedisCircuitBreaker redisCircuitBreaker,
+                                   long sessionMaxStaleSeconds) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisCircuitBreaker = redisCircuitBreaker;
+        this.sessionMaxStaleMillis = Math.min(TimeUnit.SECONDS.toMillis(sessionMaxStaleSeconds),
+                TimeUnit.MINUTES.toMillis(RedisConstants.LOGIN_USER_TTL));
     }
 
     @Override
@@ -40,10 +67,16 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
             return true;
         }
         String key = RedisConstants.LOGIN_USER_KEY + token;
-        // 3. 基于token获取Redis中的用户数据
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        // 3. 基于token获取Redis中的用户数据，Redis 不可用时用本地保存的最近一次数据
+        Map<Object, Object> userMap = redisCircuitBreaker.execute(() -> {
+            Map<Object, Object> entries = emptyToNull(stringRedisTemplate.opsForHash().entries(key));
+            if (entries != null) {
+                redisCircuitBreaker.remember(key, new LocalSession(entries, System.currentTimeMillis() + sessionMaxStaleMillis));
+            }
+            return entries;
+        }, () -> localSession(key));
         // 4. 判断用户是否存在，不存在，也放行，交给LoginInterceptor
-        if (userMap.isEmpty()) {
+        if (userMap == null) {
             return true;
         }
         // 5. 将查询到的Hash数据转化为UserDto对象
@@ -51,10 +84,29 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         // 6. 将用户信息保存到ThreadLocal
         UserHolder.saveUser(userDTO);
         // 7. 刷新tokenTTL，这里的存活时间根据需要自己设置，这里的常量值我改为了30分钟
-        stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        redisCircuitBreaker.write(() -> stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES));
         return true;
     }
 
+    // Redis 不可用时的本地登录信息，超过可用截止时间的按未登录处理
+    private Map<Object, Object> localSession(String key) {
+        LocalSession session = redisCircuitBreaker.lastKnown(key);
+        return session != null && session.expiresAt > System.currentTimeMillis() ? session.userMap : null;
+    }
+
+    private static Map<Object, Object> emptyToNull(Map<Object, Object> userMap) {
+        return userMap == null || userMap.isEmpty() ? null : userMap;
+    }
+
+    /**
+     * 异步请求（如订单状态长轮询）在请求线程上不会调用 afterCompletion，要在这里清理，
+     * 否则下一个没有 token 的请求会在同一个线程上读到上一个用户
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserHolder.removeUser();
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         // 移除threadlocal用户，避免内存泄漏
@@ -0,0 +1,327 @@
+package com.hmdp.utils;
+/**
+ * 匿名只读接口的 HTTP 响应缓存。
+ * /shop/**、/shop-type/**、/blog/hot、/voucher/** 这些不需要登录的 GET 接口，每次请求都要重新组装 Java 对象、
+ * 再经过 Jackson 序列化成 Result，而同一个 path + query 在数据变化之前返回的字节完全相同。
+ * 这里在 Servlet 过滤器层按 path + query 缓存最终的响应字节，超过一定大小的同时预先压缩一份 gzip，并生成 ETag：
+ * 1. 命中时直接把字节写回，客户端带 If-None-Match 且 ETag 一致时返回 304，不再进入 DispatcherServlet；
+ * 2. 只缓存 200 且 success 为 true 的 JSON 响应，失败结果不缓存；
+ * 3. 失效与实体缓存使用同一组事件：商铺变更（ShopChangeEvent）、商铺类型快照刷新、优惠券新增（VoucherChangeEvent），
+ *    本节点立即失效，再通过 Redis 发布订阅通知其它节点；/blog/hot 的点赞数和 /voucher/** 的实时库存变化频繁，
+ *    还要靠较短的有效期兜底。
+ * /blog/hot 的返回结果中带有当前用户是否点赞，因此只缓存没有携带 token 的匿名请求。
+ * 命中时不经过 MVC 拦截器，拦截器在这里做的事要由过滤器自己补上：
+ * 应用就绪（ReadinessInterceptor）之前不使用缓存，交给拦截器返回 503；带 token 的请求照常刷新登录有效期（RefreshTokenInterceptor）。
+ */
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.util.ZipUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+import static com.hmdp.utils.RedisConstants.RESPONSE_CACHE_EVICT_TOPIC;
+
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class ResponseCacheFilter extends OncePerRequestFilter {
+    public static final String GROUP_SHOP = "shop";
+    public static final String GROUP_SHOP_TYPE = "shop-type";
+    public static final String GROUP_BLOG = "blog";
+    public static final String GROUP_VOUCHER = "voucher";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private ApplicationAvailability applicationAvailability;
+
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Value("${hmdp.response-cache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 由事件失效的分组（商铺、商铺类型）的兜底有效期（秒）
+     */
+    @Value("${hmdp.response-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    /**
+     * /voucher/** 的有效期（秒）：响应中带有从 Redis 读取的实时秒杀库存，只能短暂缓存
+     */
+    @Value("${hmdp.response-cache.voucher-ttl-seconds:1}")
+    private long voucherTtlSeconds;
+
+    /**
+     * /blog/hot 的有效期（秒）
+     */
+    @Value("${hmdp.response-cache.blog-ttl-seconds:5}")
+    private long blogTtlSeconds;
+
+    /**
+     * 每个分组最多缓存的响应个数
+     */
+    @Value("${hmdp.response-cache.max-entries:10000}")
+    private long maxEntries;
+
+    /**
+     * 响应体超过多少字节才预先压缩 gzip
+     */
+    @Value("${hmdp.response-cache.gzip-min-bytes:1024}")
+    private int gzipMinBytes;
+
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+
+    /**
+     * 一组一起失效的缓存响应
+     * generation：每次失效加一，请求开始时记下，写入缓存前发现已变化说明结果可能是失效前的旧数据，不再写入
+     */
+    private static final class Group {
+        final Cache<String, CachedResponse> entries;
+        final AtomicLong generation = new AtomicLong();
+
+        Group(Cache<String, CachedResponse> entries) {
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * 缓存的一个响应：原始字节、gzip 字节（可能为 null）以及两种编码各自的 ETag
+     */
+    private static final class CachedResponse {
+        final String contentType;
+        final byte[] body;
+        final byte[] gzipBody;
+        final String etag;
+        final String gzipEtag;
+
+        CachedResponse(String contentType, byte[] body, byte[] gzipBody, String etag, String gzipEtag) {
+            this.contentType = contentType;
+            this.body = body;
+            this.gzipBody = gzipBody;
+            this.etag = etag;
+            this.gzipEtag = gzipEtag;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        groups.put(GROUP_SHOP, new Group(newCache(ttlSeconds)));
+        groups.put(GROUP_SHOP_TYPE, new Group(newCache(ttlSeconds)));
+        groups.put(GROUP_VOUCHER, new Group(newCache(voucherTtlSeconds)));
+        groups.put(GROUP_BLOG, new Group(newCache(blogTtlSeconds)));
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RESPONSE_CACHE_EVICT_TOPIC));
+    }
+
+    private Cache<String, CachedResponse> newCache(long ttl) {
+        return CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || !"GET".equals(request.getMethod()) || resolveGroup(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        // 就绪之前不读写缓存，由 ReadinessInterceptor 返回 503
+        if (applicationAvailability.getReadinessState() != ReadinessState.ACCEPTING_TRAFFIC) {
+            chain.doFilter(request, response);
+            return;
+        }
+        Group group = groups.get(resolveGroup(request));
+        String key = request.getQueryString() == null
+                ? request.getRequestURI() : request.getRequestURI() + "?" + request.getQueryString();
+        // 1. 命中：直接写回缓存的字节
+        CachedResponse cached = group.entries.getIfPresent(key);
+        if (cached != null) {
+            refreshToken(request);
+            write(request, response, cached);
+            return;
+        }
+        // 2. 未命中：照常处理请求，把响应体截留下来
+        long generation = group.generation.get();
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        chain.doFilter(request, wrapper);
+        CachedResponse fresh = toCachedResponse(wrapper);
+        if (fresh == null) {
+            wrapper.copyBodyToResponse();
+            return;
+        }
+        if (group.generation.get() == generation) {
+            group.entries.put(key, fresh);
+        }
+        write(request, response, fresh);
+    }
+
+    /**
+     * 1. 商铺新增/修改的事务提交后失效商铺分组
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChange(ShopChangeEvent event) {
+        evict(GROUP_SHOP);
+    }
+
+    /**
+     * 2. 优惠券新增的事务提交后失效优惠券分组
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onVoucherChange(VoucherChangeEvent event) {
+        evict(GROUP_VOUCHER);
+    }
+
+    /**
+     * 3. 失效本节点的一个分组，并通知其它节点
+     */
+    public void evict(String groupName) {
+        evictLocal(groupName);
+        stringRedisTemplate.convertAndSend(RESPONSE_CACHE_EVICT_TOPIC, groupName);
+    }
+
+    /**
+     * 4. 只失效本节点的一个分组；商铺类型快照在每个节点上各自刷新，刷新时调用这个方法即可
+     */
+    public void evictLocal(String groupName) {
+        Group group = groups.get(groupName);
+        if (group == null) {
+            return;
+        }
+        group.generation.incrementAndGet();
+        group.entries.invalidateAll();
+    }
+
+    // 命中时不经过 RefreshTokenInterceptor，带 token 的请求在这里刷新登录有效期，与拦截器一样经过 Redis 熔断器
+    private void refreshToken(HttpServletRequest request) {
+        String token = request.getHeader("authorization");
+        if (StrUtil.isNotBlank(token)) {
+            redisCircuitBreaker.write(() -> stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES));
+        }
+    }
+
+    // 按路径判断请求属于哪个分组，不需要缓存时返回 null
+    private static String resolveGroup(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith("/shop-type/")) {
+            return GROUP_SHOP_TYPE;
+        }
+        if (path.startsWith("/shop/")) {
+            return GROUP_SHOP;
+        }
+        if (path.startsWith("/voucher/")) {
+            return GROUP_VOUCHER;
+        }
+        if ("/blog/hot".equals(path) && StrUtil.isBlank(request.getHeader("authorization"))) {
+            return GROUP_BLOG;
+        }
+        return null;
+    }
+
+    // 只缓存 200、JSON 且 success 为 true 的响应
+    private CachedResponse toCachedResponse(ContentCachingResponseWrapper wrapper) {
+        String contentType = wrapper.getContentType();
+        byte[] body = wrapper.getContentAsByteArray();
+        if (wrapper.getStatus() != HttpServletResponse.SC_OK || body.length == 0 || contentType == null
+                || !MediaType.APPLICATION_JSON.isCompatibleWith(MediaType.parseMediaType(contentType))) {
+            return null;
+        }
+        try {
+            if (!objectMapper.readTree(body).path("success").asBoolean(false)) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        String md5 = DigestUtil.md5Hex(body);
+        byte[] gzipBody = body.length >= gzipMinBytes ? ZipUtil.gzip(body) : null;
+        return new CachedResponse(contentType, body, gzipBody, "\"" + md5 + "\"", "\"" + md5 + "-gzip\"");
+    }
+
+    private static void write(HttpServletRequest request, HttpServletResponse response, CachedResponse cached)
+            throws IOException {
+        boolean gzip = cached.gzipBody != null && acceptsGzip(request);
+        String etag = gzip ? cached.gzipEtag : cached.etag;
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        byte[] body = cached.body;
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            body = cached.gzipBody;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(cached.contentType);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
+    // If-None-Match 可能是 *，也可能是逗号分隔的多个（弱）ETag，只和这次实际返回的编码的 ETag 比较
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (StrUtil.isBlank(ifNoneMatch)) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
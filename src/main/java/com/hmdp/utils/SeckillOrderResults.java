@@ -0,0 +1,216 @@
+package com.hmdp.utils;
+/**
+ * 秒杀订单的处理结果表。
+ * seckillVoucher 返回订单 id 时订单还在 MQ 或 Stream 中排队，客户端原来只能不断刷新、反复查询 MySQL 才知道有没有下单成功。
+ * 1. 下单时 seckill.lua 把订单所属的用户写入 seckill:result:{orderId} 的 userId 字段，带有效期；
+ * 2. 消费者处理完订单后记录结果：HSET seckill:result:{orderId} status 1（已落库）或 2（失败），
+ *    同时在 topic:seckill:result 频道广播 "{orderId}:{status}"；
+ * 3. 每个节点订阅该频道，把结果写入本地缓存，并唤醒正在长轮询这个订单的请求；
+ * 4. 查询先读本地缓存，未命中才读一次 Redis，查询路径上不访问 MySQL；有 userId 但还没有结果的订单视为仍在处理中，
+ *    没有 userId 的订单 id（从未发放或已经过期）和属于其他用户的订单都按不存在处理。
+ */
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillOrderStatusDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RESULT_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RESULT_TOPIC;
+
+@Slf4j
+@Component
+public class SeckillOrderResults {
+    public static final int PENDING = 0;
+    public static final int PERSISTED = 1;
+    public static final int FAILED = 2;
+
+    private static final String[] NAMES = {"pending", "persisted", "failed"};
+
+    private static final String FIELD_USER_ID = "userId";
+    private static final String FIELD_STATUS = "status";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 结果保存多久（分钟）
+     */
+    @Value("${hmdp.seckill.result.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    /**
+     * 本地最多缓存多少个订单的结果
+     */
+    @Value("${hmdp.seckill.result.max-entries:100000}")
+    private long maxEntries;
+
+    /**
+     * 长轮询最多等待多久（毫秒）
+     */
+    @Value("${hmdp.seckill.result.max-wait-millis:30000}")
+    private long maxWaitMillis;
+
+    private Cache<Long, Integer> local;
+
+    // 订单 id -> 所属用户，发放后不会改变
+    private Cache<Long, Long> owners;
+
+    // 正在长轮询的请求，按订单 id 分组
+    private final Map<Long, Set<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        local = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .build();
+        owners = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .build();
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onResult(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SECKILL_RESULT_TOPIC));
+    }
+
+    /**
+     * 1. 记录订单的处理结果，由消费者调用
+     */
+    public void record(Long orderId, int status) {
+        try {
+            String key = SECKILL_RESULT_KEY + orderId;
+            stringRedisTemplate.opsForHash().put(key, FIELD_STATUS, String.valueOf(status));
+            stringRedisTemplate.expire(key, ttlMinutes, TimeUnit.MINUTES);
+            stringRedisTemplate.convertAndSend(SECKILL_RESULT_TOPIC, orderId + ":" + status);
+        } catch (Exception e) {
+            // 结果只用于展示，记录失败不影响订单本身
+            log.warn("记录秒杀订单结果失败: orderId={}, status={}", orderId, status, e);
+        }
+    }
+
+    /**
+     * 2. 查询订单的处理状态
+     */
+    public int status(Long orderId) {
+        Integer status = local.getIfPresent(orderId);
+        if (status != null) {
+            return status;
+        }
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_RESULT_KEY + orderId, Arrays.asList(FIELD_USER_ID, FIELD_STATUS));
+        if (values.get(0) != null) {
+            owners.put(orderId, Long.valueOf(values.get(0).toString()));
+        }
+        if (values.get(1) == null) {
+            return PENDING;
+        }
+        status = Integer.valueOf(values.get(1).toString());
+        local.put(orderId, status);
+        return status;
+    }
+
+    /**
+     * 订单所属的用户，订单 id 从未发放或结果已经过期时返回 null
+     */
+    public Long ownerOf(Long orderId) {
+        Long owner = owners.getIfPresent(orderId);
+        if (owner != null) {
+            return owner;
+        }
+        Object value = stringRedisTemplate.opsForHash().get(SECKILL_RESULT_KEY + orderId, FIELD_USER_ID);
+        if (value == null) {
+            return null;
+        }
+        owner = Long.valueOf(value.toString());
+        owners.put(orderId, owner);
+        return owner;
+    }
+
+    /**
+     * 结果保存多久（秒），下单脚本写入订单所属用户时使用同样的有效期
+     */
+    public long ttlSeconds() {
+        return TimeUnit.MINUTES.toSeconds(ttlMinutes);
+    }
+
+    /**
+     * 3. 长轮询：订单还在处理中时挂起请求，直到结果广播到达或者等待超时，超时时返回 pending；
+     * 订单 id 从未发放、已经过期或不属于该用户时直接返回订单不存在
+     *
+     * @param userId     当前登录的用户
+     * @param waitMillis 最多等待多久（毫秒），0 表示立即返回
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId, long waitMillis) {
+        long timeout = Math.max(1, Math.min(waitMillis, maxWaitMillis));
+        DeferredResult<Result> deferred = new DeferredResult<>(timeout, (Object) toResult(orderId, PENDING));
+        if (!userId.equals(ownerOf(orderId))) {
+            deferred.setResult(Result.fail("订单不存在"));
+            return deferred;
+        }
+        if (waitMillis <= 0) {
+            deferred.setResult(toResult(orderId, status(orderId)));
+            return deferred;
+        }
+        // 先登记再查询，避免查询之后、登记之前到达的广播被错过
+        waiters.computeIfAbsent(orderId, k -> ConcurrentHashMap.newKeySet()).add(deferred);
+        deferred.onCompletion(() -> removeWaiter(orderId, deferred));
+        int status = status(orderId);
+        if (status != PENDING) {
+            deferred.setResult(toResult(orderId, status));
+        }
+        return deferred;
+    }
+
+    // 收到结果广播："{orderId}:{status}"
+    private void onResult(String body) {
+        int index = body.indexOf(':');
+        if (index < 0) {
+            return;
+        }
+        Long orderId = Long.valueOf(body.substring(0, index));
+        int status = Integer.parseInt(body.substring(index + 1));
+        local.put(orderId, status);
+        if (status == PENDING) {
+            return;
+        }
+        Set<DeferredResult<Result>> set = waiters.remove(orderId);
+        if (set != null) {
+            Result result = toResult(orderId, status);
+            for (DeferredResult<Result> deferred : set) {
+                deferred.setResult(result);
+            }
+        }
+    }
+
+    private void removeWaiter(Long orderId, DeferredResult<Result> deferred) {
+        waiters.computeIfPresent(orderId, (k, set) -> {
+            set.remove(deferred);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static Result toResult(Long orderId, int status) {
+        return Result.ok(new SeckillOrderStatusDTO(orderId, NAMES[status]));
+    }
+}
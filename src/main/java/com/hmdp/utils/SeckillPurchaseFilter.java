@@ -0,0 +1,82 @@
+package com.hmdp.utils;
+/**
+ * 秒杀下单的本地去重过滤器。
+ * 抢到券的用户（多是脚本）会对同一张券反复请求，每次都要占用一个限流令牌，再执行一次 seckill.lua 做 SISMEMBER 才被拒绝。
+ * 每个节点为进行中的秒杀券各维护一个布隆过滤器，记录 seckill.lua 返回 0（抢购成功）或 2（重复下单）的用户：
+ * 1. seckillVoucher 在任何网络 I/O 之前先查过滤器，不在过滤器中的用户一定没有在本节点抢到过，照常走后面的流程；
+ * 2. 过滤器说"可能在"时用一次 SISMEMBER seckill:order:{voucherId} 确认，确实买过的直接拒绝，不占用限流令牌、不执行脚本；
+ *    误判的用户在 Redis 中查不到，继续走正常流程，不会被错误拒绝。
+ * 过滤器按秒杀券懒创建，长时间没有访问的秒杀券自动淘汰，同时缓存的秒杀券个数有上限，内存占用有界。
+ */
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@Component
+public class SeckillPurchaseFilter {
+    /**
+     * 每张秒杀券预计的下单用户数，超过后误判率上升
+     */
+    @Value("${hmdp.seckill.purchase-filter.expected-users:100000}")
+    private int expectedUsers;
+
+    /**
+     * 期望的误判率
+     */
+    @Value("${hmdp.seckill.purchase-filter.fpp:0.001}")
+    private double fpp;
+
+    /**
+     * 最多同时保留多少张秒杀券的过滤器
+     */
+    @Value("${hmdp.seckill.purchase-filter.max-vouchers:100}")
+    private long maxVouchers;
+
+    /**
+     * 秒杀券多久没有请求后淘汰它的过滤器（分钟）
+     */
+    @Value("${hmdp.seckill.purchase-filter.idle-minutes:60}")
+    private long idleMinutes;
+
+    private Cache<Long, BloomFilter<Long>> filters;
+
+    @PostConstruct
+    public void init() {
+        filters = CacheBuilder.newBuilder()
+                .maximumSize(maxVouchers)
+                .expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * 1. 用户是否可能已经抢购过这张秒杀券：返回 false 时一定没有记录，返回 true 时需要到 Redis 确认
+     */
+    public boolean mightHavePurchased(Long voucherId, Long userId) {
+        BloomFilter<Long> filter = filters.getIfPresent(voucherId);
+        return filter != null && filter.mightContain(userId);
+    }
+
+    /**
+     * 2. 记录抢购成功或已经抢购过的用户
+     */
+    public void record(Long voucherId, Long userId) {
+        BloomFilter<Long> filter;
+        try {
+            filter = filters.get(voucherId, () -> BloomFilter.create(Funnels.longFunnel(), expectedUsers, fpp));
+        } catch (ExecutionException e) {
+            return;
+        }
+        // 当前版本的 BloomFilter 写入不是线程安全的；读取不加锁，读到未写完的位只会漏判，漏判的请求仍由 seckill.lua 拦截
+        synchronized (filter) {
+            filter.put(userId);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.hmdp.utils;
+/**
+ * 秒杀券的活动时间表。
+ * 原来 seckill.lua 和 seckillVoucher 都不检查 begin_time/end_time，活动开始前的抢购请求也会一路打到 Redis 和 MQ。
+ * 1. 每个节点在本地缓存秒杀券的开始/结束时间，seckillVoucher 先在本地判断，活动时间之外的请求不产生任何网络 I/O；
+ * 2. 时间表同时写入 Redis 的 seckill:schedule:{voucherId}（与库存放在一起），seckill.lua 扣库存前在脚本内原子地再校验一次；
+ * 3. 预热：定时找出即将开始的秒杀券，提前 preload-lead-seconds 把库存和时间表写入 Redis，库存用 SETNX，不覆盖进行中的活动。
+ */
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SCHEDULE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+@Slf4j
+@Component
+public class SeckillSchedule {
+    // 数据库中不存在的秒杀券也缓存一个占位，避免不存在的 id 反复查库
+    private static final Schedule NOT_FOUND = new Schedule(Long.MAX_VALUE, Long.MIN_VALUE);
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 本地时间表的有效期（秒），过期后重新从数据库加载，用来感知活动时间的修改
+     */
+    @Value("${hmdp.seckill.schedule-ttl-seconds:60}")
+    private long scheduleTtlSeconds;
+
+    /**
+     * 本地最多保存多少张秒杀券的时间表，不存在的 id 也占一项，用不存在的 id 刷接口时不会让缓存无限增长
+     */
+    @Value("${hmdp.seckill.schedule-max-vouchers:1000}")
+    private long scheduleMaxVouchers;
+
+    /**
+     * 活动开始前多少秒把库存和时间表写入 Redis
+     */
+    @Value("${hmdp.seckill.preload-lead-seconds:300}")
+    private long preloadLeadSeconds;
+
+    /**
+     * 检查即将开始的活动的间隔（毫秒）
+     */
+    @Value("${hmdp.seckill.preload-interval-millis:30000}")
+    private long preloadIntervalMillis;
+
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    private LoadingCache<Long, Schedule> schedules;
+
+    /**
+     * 一张秒杀券的活动时间（毫秒时间戳）
+     */
+    private static final class Schedule {
+        final long begin;
+        final long end;
+
+        Schedule(long begin, long end) {
+            this.begin = begin;
+            this.end = end;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        schedules = CacheBuilder.newBuilder()
+                .maximumSize(scheduleMaxVouchers)
+                .expireAfterWrite(scheduleTtlSeconds, TimeUnit.SECONDS)
+                .build(new CacheLoader<Long, Schedule>() {
+                    @Override
+                    public Schedule load(Long voucherId) {
+                        SeckillVoucher voucher = seckillVoucherMapper.selectById(voucherId);
+                        return voucher == null ? NOT_FOUND : toSchedule(voucher);
+                    }
+                });
+        executorRegistry.scheduleWithFixedDelay("seckill-preload", this::scheduledPreload,
+                preloadIntervalMillis, preloadIntervalMillis);
+    }
+
+    /**
+     * 1. 本地判断秒杀券当前是否可以抢购
+     *
+     * @param voucherId 秒杀券 id
+     * @return 可以抢购时返回 null，否则返回失败原因
+     */
+    public String checkOpen(Long voucherId) {
+        Schedule schedule = schedules.getUnchecked(voucherId);
+        if (schedule == NOT_FOUND) {
+            return "秒杀券不存在";
+        }
+        long now = System.currentTimeMillis();
+        if (now < schedule.begin) {
+            return "秒杀尚未开始";
+        }
+        if (now > schedule.end) {
+            return "秒杀已经结束";
+        }
+        return null;
+    }
+
+    /**
+     * 秒杀券活动开始的时间（毫秒时间戳），用于排队放行；秒杀券不存在或已经结束时返回 null
+     */
+    public Long queueStartMillis(Long voucherId) {
+        Schedule schedule = schedules.getUnchecked(voucherId);
+        long now = System.currentTimeMillis();
+        if (schedule == NOT_FOUND || now > schedule.end) {
+            return null;
+        }
+        return Math.max(now, schedule.begin);
+    }
+
+    /**
+     * 2. 把秒杀券的库存和时间表写入 Redis，并更新本地时间表
+     * 库存使用 SETNX：key 已存在说明活动正在进行，Redis 中的库存比数据库更新，不能覆盖
+     */
+    public void preload(List<SeckillVoucher> vouchers) {
+        if (vouchers.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (SeckillVoucher voucher : vouchers) {
+                conn.setNX(SECKILL_STOCK_KEY + voucher.getVoucherId(), voucher.getStock().toString());
+                Map<String, String> hash = toHash(voucher);
+                if (!hash.isEmpty()) {
+                    conn.hMSet(SECKILL_SCHEDULE_KEY + voucher.getVoucherId(), hash);
+                }
+            }
+            return null;
+        });
+        for (SeckillVoucher voucher : vouchers) {
+            schedules.put(voucher.getVoucherId(), toSchedule(voucher));
+        }
+    }
+
+    /**
+     * 3. 新增秒杀券：库存直接覆盖写入，时间表写入 Redis 和本地
+     */
+    public void save(SeckillVoucher voucher) {
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getVoucherId(), voucher.getStock().toString());
+        Map<String, String> hash = toHash(voucher);
+        if (!hash.isEmpty()) {
+            stringRedisTemplate.opsForHash().putAll(SECKILL_SCHEDULE_KEY + voucher.getVoucherId(), hash);
+        }
+        schedules.put(voucher.getVoucherId(), toSchedule(voucher));
+    }
+
+    /**
+     * 4. 预热即将开始和正在进行的秒杀券，启动时由 CacheWarmUp 调用，之后定时执行
+     *
+     * @param batchSize 每批读取的条数
+     * @return 预热的秒杀券个数
+     */
+    public int preloadUpcoming(int batchSize) {
+        int total = 0;
+        long lastId = 0;
+        LocalDateTime now = LocalDateTime.now();
+        while (true) {
+            List<SeckillVoucher> batch = seckillVoucherMapper.selectList(new QueryWrapper<SeckillVoucher>()
+                    .select("voucher_id", "stock", "begin_time", "end_time")
+                    .gt("voucher_id", lastId)
+                    .le("begin_time", now.plusSeconds(preloadLeadSeconds))
+                    .gt("end_time", now)
+                    .orderByAsc("voucher_id")
+                    .last("LIMIT " + batchSize));
+            preload(batch);
+            total += batch.size();
+            if (batch.size() < batchSize) {
+                return total;
+            }
+            lastId = batch.get(batch.size() - 1).getVoucherId();
+        }
+    }
+
+    public void scheduledPreload() {
+        try {
+            int count = preloadUpcoming(200);
+            log.debug("秒杀券预热：{} 个", count);
+        } catch (Exception e) {
+            log.error("秒杀券预热失败", e);
+        }
+    }
+
+    private static Schedule toSchedule(SeckillVoucher voucher) {
+        return new Schedule(toMillis(voucher.getBeginTime(), Long.MIN_VALUE), toMillis(voucher.getEndTime(), Long.MAX_VALUE));
+    }
+
+    // 没有设置的时间不写入，seckill.lua 对缺失的字段不做限制
+    private static Map<String, String> toHash(SeckillVoucher voucher) {
+        Schedule schedule = toSchedule(voucher);
+        Map<String, String> hash = new HashMap<>(2);
+        if (voucher.getBeginTime() != null) {
+            hash.put("begin", String.valueOf(schedule.begin));
+        }
+        if (voucher.getEndTime() != null) {
+            hash.put("end", String.valueOf(schedule.end));
+        }
+        return hash;
+    }
+
+    private static long toMillis(LocalDateTime time, long defaultValue) {
+        return time == null ? defaultValue : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
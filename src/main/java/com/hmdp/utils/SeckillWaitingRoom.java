@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+/**
+ * 秒杀虚拟等候室。
+ * 热门秒杀券开抢的瞬间所有用户同时请求 seckillVoucher，限流器只能让绝大多数请求失败（"目前网络正忙"），用户只能拼命重试。
+ * 开启等候室后（hmdp.seckill.waiting-room.enabled=true）抢购分成两步：
+ * 1. 排队：用户先领取排队号，排队号保存在 Redis 的 seckill:queue:ticket:{voucherId} 中（用户 id -> 排队号），
+ *    同一用户重复领取得到同一个号；活动开始前也可以排队；
+ * 2. 放行：每个节点定时执行 waiting-room-admit.lua，按 admit-per-second 的速率推进 seckill:queue:{voucherId} 中的放行进度，
+ *    速率与下游（限流器、MQ 消费者）的处理能力一致；进度按 Redis 中记录的上次放行时间计算，多个节点同时执行也不会放行更多；
+ * 3. 查询：脚本返回所有秒杀券的放行进度，各节点缓存在本地，查询排队状态的接口直接用本地缓存计算，不访问 Redis；
+ * 4. 下单：seckillVoucher 校验用户的排队号已被放行，没有排队或者还没轮到的请求直接拒绝。
+ */
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.SeckillQueueDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_QUEUE_TICKET_KEY;
+
+@Slf4j
+@Component
+public class SeckillWaitingRoom {
+    private static final DefaultRedisScript<Long> ENQUEUE_SCRIPT;
+    private static final DefaultRedisScript<List> ADMIT_SCRIPT;
+
+    static {
+        ENQUEUE_SCRIPT = new DefaultRedisScript<>();
+        ENQUEUE_SCRIPT.setLocation(new ClassPathResource("waiting-room.lua"));
+        ENQUEUE_SCRIPT.setResultType(Long.class);
+        ADMIT_SCRIPT = new DefaultRedisScript<>();
+        ADMIT_SCRIPT.setLocation(new ClassPathResource("waiting-room-admit.lua"));
+        ADMIT_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillSchedule seckillSchedule;
+
+    @Resource
+    private AsyncRedisClient asyncRedisClient;
+
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    @Value("${hmdp.seckill.waiting-room.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 每张秒杀券每秒放行的人数
+     */
+    @Value("${hmdp.seckill.waiting-room.admit-per-second:10}")
+    private long admitPerSecond;
+
+    /**
+     * 排队数据在 Redis 中的有效期（秒）
+     */
+    @Value("${hmdp.seckill.waiting-room.ttl-seconds:86400}")
+    private long ttlSeconds;
+
+    /**
+     * 推进放行进度的间隔（毫秒）
+     */
+    @Value("${hmdp.seckill.waiting-room.admit-interval-millis:500}")
+    private long admitIntervalMillis;
+
+    // 各秒杀券的放行进度：{已放行到的排队号, 已发出的最大排队号}
+    private final Map<Long, long[]> progress = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            executorRegistry.scheduleAtFixedRate("waiting-room-admit", this::admit, admitIntervalMillis, admitIntervalMillis);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 1. 领取排队号
+     *
+     * @return 排队状态，秒杀券不存在或已经结束时返回 null
+     */
+    public SeckillQueueDTO enqueue(Long voucherId, Long userId) {
+        Long start = seckillSchedule.queueStartMillis(voucherId);
+        if (start == null) {
+            return null;
+        }
+        Long ticket = stringRedisTemplate.execute(ENQUEUE_SCRIPT, Collections.emptyList(),
+                voucherId.toString(), userId.toString(), start.toString(), String.valueOf(ttlSeconds));
+        return status(voucherId, ticket);
+    }
+
+    /**
+     * 2. 根据排队号查询排队状态，只读本地缓存的放行进度
+     */
+    public SeckillQueueDTO status(Long voucherId, Long ticket) {
+        long[] current = progress.get(voucherId);
+        long admitted = current == null ? 0 : current[0];
+        SeckillQueueDTO dto = new SeckillQueueDTO();
+        dto.setVoucherId(voucherId);
+        dto.setTicket(ticket);
+        dto.setAdmitted(ticket <= admitted);
+        long ahead = Math.max(0, ticket - admitted - 1);
+        dto.setAhead(ahead);
+        dto.setWaitSeconds(ticket <= admitted ? 0 : (ahead + admitPerSecond) / admitPerSecond);
+        return dto;
+    }
+
+    /**
+     * 3. 查询用户的排队号，没有排队时返回 null
+     */
+    public Long ticketOf(Long voucherId, Long userId) {
+        Object ticket = stringRedisTemplate.opsForHash().get(SECKILL_QUEUE_TICKET_KEY + voucherId, userId.toString());
+        return ticket == null ? null : Long.valueOf(ticket.toString());
+    }
+
+    /**
+     * 4. 下单前校验：用户已经排队并且轮到了，排队号通过异步 HGET 读取
+     *
+     * @return 可以下单时结果为 null，否则为失败原因
+     */
+    public CompletableFuture<String> checkAdmittedAsync(Long voucherId, Long userId) {
+        return asyncRedisClient.hget(SECKILL_QUEUE_TICKET_KEY + voucherId, userId.toString()).thenApply(ticket -> {
+            if (ticket == null) {
+                return "请先排队";
+            }
+            long[] current = progress.get(voucherId);
+            if (current == null || Long.parseLong(ticket) > current[0]) {
+                return "还没有轮到您，请稍候";
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 5. 定时推进放行进度，并刷新本地缓存
+     */
+    public void admit() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<?> result = stringRedisTemplate.execute(ADMIT_SCRIPT, Collections.emptyList(),
+                    String.valueOf(System.currentTimeMillis()), String.valueOf(admitPerSecond));
+            if (result == null) {
+                return;
+            }
+            Set<Long> active = new HashSet<>();
+            for (int i = 0; i + 2 < result.size(); i += 3) {
+                String voucherId = result.get(i).toString();
+                if (StrUtil.isBlank(voucherId)) {
+                    continue;
+                }
+                active.add(Long.valueOf(voucherId));
+                progress.put(Long.valueOf(voucherId), new long[]{
+                        Long.parseLong(result.get(i + 1).toString()), Long.parseLong(result.get(i + 2).toString())});
+            }
+            // 排队数据已经过期的秒杀券
+            progress.keySet().retainAll(active);
+        } catch (Exception e) {
+            log.error("秒杀排队放行失败", e);
+        }
+    }
+}
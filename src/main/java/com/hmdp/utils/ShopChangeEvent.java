@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 商铺变更事件：新增或修改商铺后由 ShopServiceImpl 发布，
+ * 搜索索引等需要与 tb_shop 保持同步的组件监听该事件，在事务提交后再更新自身数据。
+ */
+@Data
+@AllArgsConstructor
+public class ShopChangeEvent {
+    /**
+     * 变更前的商铺数据，新增商铺时为 null
+     */
+    private Shop before;
+
+    /**
+     * 变更后（已写入数据库）的完整商铺数据
+     */
+    private Shop shop;
+}
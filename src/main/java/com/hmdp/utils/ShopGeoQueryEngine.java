@@ -0,0 +1,176 @@
+package com.hmdp.utils;
+/**
+ * 附近商铺查询引擎。
+ * 原来的实现每翻一页都要执行一次 GEOSEARCH ... LIMIT current * 10，第 N 页会把前面所有页重新查一遍。
+ * 这里按 (typeId, 用户所在 geohash 网格, 半径) 缓存一份短时有效的结果快照：
+ * 快照以网格中心为圆心、半径额外加上半个网格对角线做一次 GEOSEARCH，带回坐标，
+ * 因此网格内任何用户都能在本地重新计算精确距离、过滤、排序并分页，后续翻页不再访问 Redis。
+ * 启用了进程内空间索引 ShopSpatialIndex 时直接由它回答，Redis GEO 只作为关闭或加载未完成时的回退。
+ */
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+@Slf4j
+@Component
+public class ShopGeoQueryEngine {
+    // 快照网格精度：经纬度各 15 位，网格约 1km x 0.6km
+    private static final int SNAPSHOT_CELL_STEP = 15;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopSpatialIndex shopSpatialIndex;
+
+    /**
+     * 快照有效期（秒）
+     */
+    @Value("${hmdp.geo.snapshot-ttl-seconds:30}")
+    private long snapshotTtlSeconds;
+
+    /**
+     * 本地最多缓存的快照个数
+     */
+    @Value("${hmdp.geo.snapshot-max-size:10000}")
+    private long snapshotMaxSize;
+
+    /**
+     * 单个快照最多保存的商铺数，也就是分页能翻到的上限
+     */
+    @Value("${hmdp.geo.snapshot-limit:1000}")
+    private long snapshotLimit;
+
+    private Cache<String, List<GeoPoint>> snapshots;
+
+    /**
+     * 快照中的一个商铺坐标
+     */
+    private static final class GeoPoint {
+        final long id;
+        final double x;
+        final double y;
+
+        GeoPoint(long id, double x, double y) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * 查询结果中的一个商铺：id 及其与用户的距离（米）
+     */
+    public static class NearbyShop {
+        private final long id;
+        private final double distance;
+
+        public NearbyShop(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        snapshots = CacheBuilder.newBuilder()
+                .expireAfterWrite(snapshotTtlSeconds, TimeUnit.SECONDS)
+                .maximumSize(snapshotMaxSize)
+                .build();
+    }
+
+    /**
+     * 查询用户附近某类型的商铺，按距离升序分页
+     *
+     * @param typeId 商铺类型
+     * @param x      用户经度
+     * @param y      用户纬度
+     * @param radius 搜索半径（米）
+     * @param from   起始下标
+     * @param size   页大小
+     * @return 当前页商铺及距离
+     */
+    public List<NearbyShop> search(Integer typeId, double x, double y, double radius, int from, int size) {
+        if (shopSpatialIndex.isAvailable()) {
+            return shopSpatialIndex.search(typeId, x, y, radius, from, size);
+        }
+        long lonIndex = GeoHashUtils.lonIndex(x, SNAPSHOT_CELL_STEP);
+        long latIndex = GeoHashUtils.latIndex(y, SNAPSHOT_CELL_STEP);
+        String cacheKey = typeId + ":" + lonIndex + ":" + latIndex + ":" + (long) radius;
+        List<GeoPoint> snapshot;
+        try {
+            // 同一网格并发未命中时只有一个线程去 Redis 加载
+            snapshot = snapshots.get(cacheKey, () -> loadSnapshot(typeId, lonIndex, latIndex, radius));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        List<NearbyShop> nearby = new ArrayList<>();
+        for (GeoPoint p : snapshot) {
+            double d = GeoHashUtils.distance(x, y, p.x, p.y);
+            if (d <= radius) {
+                nearby.add(new NearbyShop(p.id, d));
+            }
+        }
+        if (nearby.size() <= from) {
+            return Collections.emptyList();
+        }
+        nearby.sort(Comparator.comparingDouble(NearbyShop::getDistance));
+        return nearby.subList(from, Math.min(from + size, nearby.size()));
+    }
+
+    /**
+     * 以网格中心为圆心查询 Redis，半径加上半个网格对角线，覆盖网格内任意用户的搜索圆
+     */
+    private List<GeoPoint> loadSnapshot(Integer typeId, long lonIndex, long latIndex, double radius) {
+        double centerX = GeoHashUtils.lonCenter(lonIndex, SNAPSHOT_CELL_STEP);
+        double centerY = GeoHashUtils.latCenter(latIndex, SNAPSHOT_CELL_STEP);
+        double searchRadius = radius + GeoHashUtils.cellHalfDiagonal(latIndex, SNAPSHOT_CELL_STEP);
+        // GEOSEARCH key FROMLONLAT x y BYRADIUS r m ASC COUNT n WITHCOORD
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(centerX, centerY),
+                new Distance(searchRadius),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
+                        .includeCoordinates()
+                        .sortAscending()
+                        .limit(snapshotLimit));
+        if (results == null) {
+            return Collections.emptyList();
+        }
+        List<GeoPoint> snapshot = new ArrayList<>(results.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results.getContent()) {
+            Point point = result.getContent().getPoint();
+            snapshot.add(new GeoPoint(Long.parseLong(result.getContent().getName()), point.getX(), point.getY()));
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,155 @@
+package com.hmdp.utils;
+/**
+ * 维护 Redis 中按类型划分的商铺 GEO 索引 shop:geo:{typeId}。
+ * 以前这些 key 只能靠测试方法 loadShopData 手动写入，新增或挪动位置的商铺一直查不到。
+ * 1. 启动时全量重建：流式读取 tb_shop，按类型攒批后用 pipeline 写入影子 key，全部写完再 RENAME 覆盖正式 key，
+ *    重建过程中查询始终能看到一份完整的旧数据。
+ * 2. 增量同步：监听 ShopChangeEvent，新增/修改时 GEOADD，类型变化时从旧类型中 ZREM。
+ */
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_SHADOW_KEY;
+
+@Slf4j
+@Component
+public class ShopGeoSync implements ApplicationRunner {
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 启动时是否全量重建 GEO 索引
+     */
+    @Value("${hmdp.geo.sync.rebuild-on-startup:true}")
+    private boolean rebuildOnStartup;
+
+    /**
+     * 攒够多少个坐标执行一次 pipeline 写入
+     */
+    @Value("${hmdp.geo.sync.batch-size:500}")
+    private int batchSize;
+
+    // 重建期间增量变更需要同时写入影子 key，否则会被最后的 RENAME 覆盖掉
+    private volatile boolean rebuilding = false;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (rebuildOnStartup) {
+            rebuildAll();
+        }
+    }
+
+    /**
+     * 全量重建所有类型的 GEO 索引
+     */
+    public synchronized void rebuildAll() {
+        long start = System.currentTimeMillis();
+        rebuilding = true;
+        try {
+            Set<Long> typeIds = new HashSet<>();
+            Map<Long, List<RedisGeoCommands.GeoLocation<String>>> buffer = new HashMap<>();
+            int[] buffered = {0};
+            int[] total = {0};
+            shopMapper.streamShopLocations(context -> {
+                Shop shop = context.getResultObject();
+                if (!hasLocation(shop)) {
+                    return;
+                }
+                // 第一次遇到某个类型时清掉上次残留的影子 key
+                if (typeIds.add(shop.getTypeId())) {
+                    stringRedisTemplate.delete(SHOP_GEO_SHADOW_KEY + shop.getTypeId());
+                }
+                buffer.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>()).add(location(shop));
+                total[0]++;
+                if (++buffered[0] >= batchSize) {
+                    flush(buffer);
+                    buffered[0] = 0;
+                }
+            });
+            flush(buffer);
+            // 所有类型都写完后再逐个切换，RENAME 是原子操作
+            for (Long typeId : typeIds) {
+                stringRedisTemplate.rename(SHOP_GEO_SHADOW_KEY + typeId, SHOP_GEO_KEY + typeId);
+            }
+            log.info("商铺 GEO 索引重建完成，{} 个类型共 {} 个商铺，耗时 {} ms",
+                    typeIds.size(), total[0], System.currentTimeMillis() - start);
+        } finally {
+            rebuilding = false;
+        }
+    }
+
+    /**
+     * 新增/修改商铺的事务提交后增量更新 GEO 索引
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChange(ShopChangeEvent event) {
+        Shop before = event.getBefore();
+        Shop shop = event.getShop();
+        if (shop == null || shop.getId() == null) {
+            return;
+        }
+        String member = shop.getId().toString();
+        // 类型变了，或者新数据没有坐标，都要先从旧类型中移除
+        if (before != null && before.getTypeId() != null
+                && (!hasLocation(shop) || !before.getTypeId().equals(shop.getTypeId()))) {
+            stringRedisTemplate.opsForZSet().remove(SHOP_GEO_KEY + before.getTypeId(), member);
+            if (rebuilding) {
+                stringRedisTemplate.opsForZSet().remove(SHOP_GEO_SHADOW_KEY + before.getTypeId(), member);
+            }
+        }
+        if (hasLocation(shop)) {
+            Point point = new Point(shop.getX(), shop.getY());
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(), point, member);
+            if (rebuilding) {
+                stringRedisTemplate.opsForGeo().add(SHOP_GEO_SHADOW_KEY + shop.getTypeId(), point, member);
+            }
+        }
+    }
+
+    // 一次 pipeline 把缓冲区中各类型的坐标写入对应的影子 key，每个类型一条 GEOADD
+    private void flush(Map<Long, List<RedisGeoCommands.GeoLocation<String>>> buffer) {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Map.Entry<Long, List<RedisGeoCommands.GeoLocation<String>>> e : buffer.entrySet()) {
+                conn.geoAdd(SHOP_GEO_SHADOW_KEY + e.getKey(), e.getValue());
+            }
+            return null;
+        });
+        buffer.clear();
+    }
+
+    private static RedisGeoCommands.GeoLocation<String> location(Shop shop) {
+        return new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+}
@@ -0,0 +1,536 @@
+package com.hmdp.utils;
+/**
+ * 商铺全文检索的进程内倒排索引，用来替代 tb_shop 上无法走索引的 name LIKE '%关键字%' 查询。
+ * 对商铺名称、商圈、地址做 1-gram + 2-gram 切分（适合没有空格分词的中文名称），
+ * 启动时从 tb_shop 构建，之后通过 ShopChangeEvent 与数据库保持同步；
+ * 可选地把索引快照持久化到内存映射文件，重启时只需加载快照并补齐快照之后更新过的商铺。
+ * 快照头中保存写快照时数据库的 MAX(update_time)，增量按数据库自己的时钟比较，不受应用节点时钟和时区的影响；
+ * 加载快照后再用 tb_shop 的 id 列表与索引比对，去掉快照之后删除的商铺、补上漏掉的商铺。
+ */
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@Slf4j
+@Component
+public class ShopSearchIndex implements ApplicationRunner {
+    // 快照文件头：魔数 "SHIX" + 格式版本
+    private static final int SNAPSHOT_MAGIC = 0x53484958;
+    private static final int SNAPSHOT_VERSION = 2;
+    // 启动时分批读取 tb_shop 的批大小
+    private static final int LOAD_BATCH_SIZE = 500;
+    // 增量从水位线再往前回看的秒数：update_time 在语句执行时取值，事务提交得晚的商铺可能早于水位线
+    private static final long INCREMENTAL_LOOKBACK_SECONDS = 60;
+
+    // 各字段命中完整关键字时的得分，名称 > 商圈 > 地址
+    private static final int SCORE_NAME_PREFIX = 100;
+    private static final int SCORE_NAME_CONTAINS = 50;
+    private static final int SCORE_AREA_CONTAINS = 20;
+    private static final int SCORE_ADDRESS_CONTAINS = 10;
+    // 只命中了全部 n-gram、但没有连续包含关键字时的得分
+    private static final int SCORE_GRAM_ONLY = 1;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    /**
+     * 快照文件路径，为空表示不持久化
+     */
+    @Value("${hmdp.search.index-file:}")
+    private String indexFile;
+
+    // 商铺id -> 被索引的文档
+    private final Map<Long, Doc> docs = new HashMap<>();
+    // n-gram -> 包含它的商铺id
+    private final Map<String, Set<Long>> postings = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 索引构建完成之前，调用方应回退到数据库查询
+    private volatile boolean ready = false;
+
+    /**
+     * 一个检索结果页：total 为命中的商铺总数，ids 为当前页按相关度排好序的商铺id
+     */
+    public static class SearchPage {
+        private final long total;
+        private final List<Long> ids;
+
+        SearchPage(long total, List<Long> ids) {
+            this.total = total;
+            this.ids = ids;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public List<Long> getIds() {
+            return ids;
+        }
+    }
+
+    private static final class Doc {
+        final long id;
+        final Long typeId;
+        final String name;
+        final String area;
+        final String address;
+
+        Doc(long id, Long typeId, String name, String area, String address) {
+            this.id = id;
+            this.typeId = typeId;
+            this.name = normalize(name);
+            this.area = normalize(area);
+            this.address = normalize(address);
+        }
+    }
+
+    private static final class Hit {
+        final Doc doc;
+        final int score;
+
+        Hit(Doc doc, int score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 启动时构建索引：优先加载快照并补齐增量，没有可用快照时全量扫描 tb_shop
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.currentTimeMillis();
+        Snapshot snapshot = loadSnapshot();
+        if (snapshot != null) {
+            int changed = 0;
+            if (snapshot.watermark != null) {
+                // 水位线与 update_time 都由数据库给出，经过同一个驱动转换，比较时不涉及应用节点的时钟和时区
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "name", "area", "address")
+                        .ge("update_time", snapshot.watermark.minusSeconds(INCREMENTAL_LOOKBACK_SECONDS)));
+                shops.forEach(this::index);
+                changed = shops.size();
+            }
+            Set<Long> dbIds = new HashSet<>();
+            for (Object id : shopMapper.selectObjs(new QueryWrapper<Shop>().select("id"))) {
+                dbIds.add(((Number) id).longValue());
+            }
+            int removed = retainOnly(dbIds);
+            int missing = indexMissing(dbIds);
+            log.info("商铺检索索引已从快照加载，补齐 {} 条增量，删除 {} 条，补上 {} 条遗漏，共 {} 条，耗时 {} ms",
+                    changed, removed, missing, size(), System.currentTimeMillis() - start);
+        } else {
+            long lastId = 0;
+            while (true) {
+                List<Shop> batch = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "name", "area", "address")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + LOAD_BATCH_SIZE));
+                batch.forEach(this::index);
+                if (batch.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = batch.get(batch.size() - 1).getId();
+            }
+            log.info("商铺检索索引全量构建完成，共 {} 条，耗时 {} ms", size(), System.currentTimeMillis() - start);
+            saveSnapshot();
+        }
+        ready = true;
+    }
+
+    /**
+     * 新增/修改商铺的事务提交后，重新索引该商铺
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChange(ShopChangeEvent event) {
+        if (event.getShop() != null) {
+            index(event.getShop());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (ready) {
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * 写入或替换一个商铺的索引
+     */
+    public void index(Shop shop) {
+        if (shop == null || shop.getId() == null) {
+            return;
+        }
+        index(new Doc(shop.getId(), shop.getTypeId(), shop.getName(), shop.getArea(), shop.getAddress()));
+    }
+
+    private void index(Doc doc) {
+        lock.writeLock().lock();
+        try {
+            Doc old = docs.put(doc.id, doc);
+            if (old != null) {
+                unlinkGrams(old);
+            }
+            for (String gram : grams(doc)) {
+                postings.computeIfAbsent(gram, k -> new HashSet<>()).add(doc.id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 从索引中去掉不在 ids 中的商铺（快照之后已被删除）
+     *
+     * @return 去掉的商铺数
+     */
+    int retainOnly(Set<Long> ids) {
+        lock.writeLock().lock();
+        try {
+            List<Long> deleted = new ArrayList<>();
+            for (Long id : docs.keySet()) {
+                if (!ids.contains(id)) {
+                    deleted.add(id);
+                }
+            }
+            for (Long id : deleted) {
+                unlinkGrams(docs.remove(id));
+            }
+            return deleted.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 数据库中有、索引中没有的商铺（例如事务提交晚于回看窗口的新商铺），分批查出后补进索引
+    private int indexMissing(Set<Long> dbIds) {
+        List<Long> missing = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Long id : dbIds) {
+                if (!docs.containsKey(id)) {
+                    missing.add(id);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (int i = 0; i < missing.size(); i += LOAD_BATCH_SIZE) {
+            shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "type_id", "name", "area", "address")
+                    .in("id", missing.subList(i, Math.min(i + LOAD_BATCH_SIZE, missing.size()))))
+                    .forEach(this::index);
+        }
+        return missing.size();
+    }
+
+    // 调用方持有写锁
+    private void unlinkGrams(Doc doc) {
+        for (String gram : grams(doc)) {
+            Set<Long> ids = postings.get(gram);
+            if (ids != null && ids.remove(doc.id) && ids.isEmpty()) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * 检索商铺
+     *
+     * @param keyword 关键字，匹配名称、商圈、地址
+     * @param typeId  商铺类型，为 null 时不过滤
+     * @param prefix  为 true 时只返回名称以关键字开头的商铺（输入联想）
+     * @param from    起始下标
+     * @param size    页大小
+     * @return 命中结果，按相关度降序；关键字为空时返回 null，由调用方决定如何处理
+     */
+    public SearchPage search(String keyword, Long typeId, boolean prefix, int from, int size) {
+        String q = normalize(keyword);
+        if (q == null) {
+            return null;
+        }
+        Set<String> queryGrams = q.length() == 1 ? Collections.singleton(q) : bigrams(q);
+        List<Hit> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            // 从最短的倒排链开始求交集
+            List<Set<Long>> lists = new ArrayList<>(queryGrams.size());
+            for (String gram : queryGrams) {
+                Set<Long> ids = postings.get(gram);
+                if (ids == null) {
+                    return new SearchPage(0, Collections.emptyList());
+                }
+                lists.add(ids);
+            }
+            lists.sort(Comparator.comparingInt(Set::size));
+            outer:
+            for (Long id : lists.get(0)) {
+                for (int i = 1; i < lists.size(); i++) {
+                    if (!lists.get(i).contains(id)) {
+                        continue outer;
+                    }
+                }
+                Doc doc = docs.get(id);
+                if (typeId != null && !typeId.equals(doc.typeId)) {
+                    continue;
+                }
+                if (prefix && (doc.name == null || !doc.name.startsWith(q))) {
+                    continue;
+                }
+                hits.add(new Hit(doc, score(doc, q)));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 得分高的在前，同分时名称短的在前，再按id保证顺序稳定
+        hits.sort(Comparator.<Hit>comparingInt(h -> -h.score)
+                .thenComparingInt(h -> h.doc.name == null ? Integer.MAX_VALUE : h.doc.name.length())
+                .thenComparingLong(h -> h.doc.id));
+        List<Long> ids = new ArrayList<>();
+        for (int i = Math.max(from, 0); i < hits.size() && ids.size() < size; i++) {
+            ids.add(hits.get(i).doc.id);
+        }
+        return new SearchPage(hits.size(), ids);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int score(Doc doc, String q) {
+        int score = 0;
+        if (doc.name != null) {
+            if (doc.name.startsWith(q)) {
+                score += SCORE_NAME_PREFIX;
+            } else if (doc.name.contains(q)) {
+                score += SCORE_NAME_CONTAINS;
+            }
+        }
+        if (doc.area != null && doc.area.contains(q)) {
+            score += SCORE_AREA_CONTAINS;
+        }
+        if (doc.address != null && doc.address.contains(q)) {
+            score += SCORE_ADDRESS_CONTAINS;
+        }
+        return score == 0 ? SCORE_GRAM_ONLY : score;
+    }
+
+    private static Set<String> grams(Doc doc) {
+        Set<String> grams = new HashSet<>();
+        addGrams(grams, doc.name);
+        addGrams(grams, doc.area);
+        addGrams(grams, doc.address);
+        return grams;
+    }
+
+    // 同时索引单字和相邻两字，单字用于只输入一个字的查询
+    private static void addGrams(Set<String> grams, String text) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+            if (i + 1 < text.length()) {
+                grams.add(text.substring(i, i + 2));
+            }
+        }
+    }
+
+    private static Set<String> bigrams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 1 < text.length(); i++) {
+            grams.add(text.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    // 统一转小写并去掉空白，使 "KTV" 与 "ktv"、"运河 上街" 与 "运河上街" 能互相匹配
+    private static String normalize(String text) {
+        if (StrUtil.isBlank(text)) {
+            return null;
+        }
+        return StrUtil.cleanBlank(text).toLowerCase();
+    }
+
+    //------------------------------------------------------------- 快照持久化
+
+    /**
+     * 一个已加载的快照：watermark 为写快照时数据库中商铺的 MAX(update_time)，表中没有商铺时为 null
+     */
+    static final class Snapshot {
+        final LocalDateTime watermark;
+
+        Snapshot(LocalDateTime watermark) {
+            this.watermark = watermark;
+        }
+    }
+
+    /**
+     * 先从数据库读取水位线，再写快照：之后提交的修改一定不早于水位线，重启时会被增量补齐
+     */
+    void saveSnapshot() {
+        if (StrUtil.isBlank(indexFile)) {
+            return;
+        }
+        LocalDateTime watermark;
+        try {
+            watermark = shopMapper.selectMaxUpdateTime();
+        } catch (RuntimeException e) {
+            // 取不到水位线时不覆盖旧快照，旧快照和它的水位线仍然一致
+            log.warn("读取商铺更新时间失败，跳过写入检索索引快照: {}", e.toString());
+            return;
+        }
+        saveSnapshot(watermark);
+    }
+
+    /**
+     * 把当前索引中的文档写入快照文件：先写临时文件，再原子替换，避免重启时读到半个文件
+     */
+    void saveSnapshot(LocalDateTime watermark) {
+        if (StrUtil.isBlank(indexFile)) {
+            return;
+        }
+        Path target = Paths.get(indexFile);
+        Path tmp = Paths.get(indexFile + ".tmp");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            lock.readLock().lock();
+            try {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                writeString(out, watermark == null ? null : watermark.toString());
+                out.writeInt(docs.size());
+                for (Doc doc : docs.values()) {
+                    out.writeLong(doc.id);
+                    out.writeLong(doc.typeId == null ? -1L : doc.typeId);
+                    writeString(out, doc.name);
+                    writeString(out, doc.area);
+                    writeString(out, doc.address);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            out.flush();
+            byte[] data = bytes.toByteArray();
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, data.length);
+                buffer.put(data);
+                buffer.force();
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("商铺检索索引快照已写入 {}，{} 字节", target, data.length);
+        } catch (IOException e) {
+            log.warn("商铺检索索引快照写入失败: {}", e.toString());
+        }
+    }
+
+    /**
+     * 通过内存映射读取快照文件并直接在映射区上解析
+     *
+     * @return 加载的快照，没有可用快照时返回 null
+     */
+    Snapshot loadSnapshot() {
+        if (StrUtil.isBlank(indexFile) || !Files.isRegularFile(Paths.get(indexFile))) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(indexFile), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                log.warn("商铺检索索引快照 {} 格式不匹配，改为全量构建", indexFile);
+                return null;
+            }
+            String watermark = readString(buffer);
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                long typeId = buffer.getLong();
+                String name = readString(buffer);
+                String area = readString(buffer);
+                String address = readString(buffer);
+                index(new Doc(id, typeId < 0 ? null : typeId, name, area, address));
+            }
+            return new Snapshot(watermark == null ? null : LocalDateTime.parse(watermark));
+        } catch (IOException | RuntimeException e) {
+            // 快照损坏时丢弃已加载的部分，回退到全量构建
+            log.warn("商铺检索索引快照 {} 读取失败，改为全量构建: {}", indexFile, e.toString());
+            lock.writeLock().lock();
+            try {
+                docs.clear();
+                postings.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int len = buffer.getInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] b = new byte[len];
+        buffer.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,296 @@
+package com.hmdp.utils;
+/**
+ * 进程内的商铺空间索引，附近商铺查询不再依赖 Redis 中的 shop:geo:{typeId}，也没有任何网络开销。
+ * 每个商铺类型对应一个不可变的 TypeGrid：商铺按 52 位 geohash 排序后存放在基本类型数组中，
+ * 查询时选出边长不小于半径的网格精度，对用户所在网格及其 8 个相邻网格做二分查找得到候选，
+ * 再计算精确距离，按距离取最近的 k 个（半径 + kNN）。
+ * 启动时从 tb_shop 加载，之后通过 ShopChangeEvent 增量更新：写入时复制出新的 TypeGrid 再整体替换，读操作无锁。
+ */
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Slf4j
+@Component
+public class ShopSpatialIndex implements ApplicationRunner {
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    /**
+     * 是否启用本地空间索引，关闭后附近商铺查询回退到 Redis GEO
+     */
+    @Value("${hmdp.geo.local-index-enabled:true}")
+    private boolean enabled;
+
+    // 商铺类型 -> 该类型的空间索引，整体替换，读线程无需加锁
+    private volatile Map<Long, TypeGrid> grids = Collections.emptyMap();
+    // 商铺id -> 当前所在类型，用于类型变更时从旧类型中移除
+    private final Map<Long, Long> shopTypes = new HashMap<>();
+    private volatile boolean ready = false;
+
+    /**
+     * 某一类型商铺的只读空间索引，四个数组按下标一一对应，按 hashes 升序排列
+     */
+    private static final class TypeGrid {
+        static final TypeGrid EMPTY = new TypeGrid(new long[0], new long[0], new double[0], new double[0]);
+
+        final long[] hashes;
+        final long[] ids;
+        final double[] xs;
+        final double[] ys;
+
+        TypeGrid(long[] hashes, long[] ids, double[] xs, double[] ys) {
+            this.hashes = hashes;
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * 复制出一个去掉 id、并在 shop 不为 null 时加入 shop 的新索引
+         */
+        TypeGrid with(long id, Shop shop) {
+            List<Entry> entries = new ArrayList<>(size() + 1);
+            for (int i = 0; i < size(); i++) {
+                if (ids[i] != id) {
+                    entries.add(new Entry(hashes[i], ids[i], xs[i], ys[i]));
+                }
+            }
+            if (shop != null) {
+                entries.add(Entry.of(shop));
+            }
+            return build(entries);
+        }
+
+        static TypeGrid build(List<Entry> entries) {
+            entries.sort(Comparator.comparingLong(e -> e.hash));
+            int n = entries.size();
+            long[] hashes = new long[n];
+            long[] ids = new long[n];
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                Entry e = entries.get(i);
+                hashes[i] = e.hash;
+                ids[i] = e.id;
+                xs[i] = e.x;
+                ys[i] = e.y;
+            }
+            return new TypeGrid(hashes, ids, xs, ys);
+        }
+
+        // 第一个 >= hash 的下标
+        int lowerBound(long hash) {
+            int lo = 0;
+            int hi = hashes.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (hashes[mid] < hash) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    // 仅在构建索引时使用的临时对象
+    private static final class Entry {
+        final long hash;
+        final long id;
+        final double x;
+        final double y;
+
+        Entry(long hash, long id, double x, double y) {
+            this.hash = hash;
+            this.id = id;
+            this.x = x;
+            this.y = y;
+        }
+
+        static Entry of(Shop shop) {
+            return new Entry(GeoHashUtils.encode(shop.getX(), shop.getY(), GeoHashUtils.MAX_STEP),
+                    shop.getId(), shop.getX(), shop.getY());
+        }
+    }
+
+    /**
+     * 是否可以用本地索引回答查询：已启用且启动加载已完成
+     */
+    public boolean isAvailable() {
+        return enabled && ready;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Map<Long, List<Entry>> byType = new HashMap<>();
+        int total = 0;
+        long lastId = 0;
+        while (true) {
+            List<Shop> batch = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "type_id", "x", "y")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + LOAD_BATCH_SIZE));
+            for (Shop shop : batch) {
+                if (!hasLocation(shop)) {
+                    continue;
+                }
+                byType.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>()).add(Entry.of(shop));
+                total++;
+            }
+            if (batch.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+            lastId = batch.get(batch.size() - 1).getId();
+        }
+        Map<Long, TypeGrid> loaded = new HashMap<>(byType.size());
+        synchronized (this) {
+            for (Map.Entry<Long, List<Entry>> e : byType.entrySet()) {
+                loaded.put(e.getKey(), TypeGrid.build(e.getValue()));
+                for (Entry entry : e.getValue()) {
+                    shopTypes.put(entry.id, e.getKey());
+                }
+            }
+            grids = loaded;
+        }
+        ready = true;
+        log.info("商铺空间索引加载完成，{} 个类型共 {} 个商铺，耗时 {} ms",
+                loaded.size(), total, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 新增/修改商铺的事务提交后更新索引，类型变化时先从旧类型中移除
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChange(ShopChangeEvent event) {
+        Shop shop = event.getShop();
+        if (!enabled || shop == null || shop.getId() == null) {
+            return;
+        }
+        synchronized (this) {
+            Map<Long, TypeGrid> next = new HashMap<>(grids);
+            Long oldType = shopTypes.remove(shop.getId());
+            if (oldType != null && !oldType.equals(shop.getTypeId())) {
+                next.put(oldType, next.getOrDefault(oldType, TypeGrid.EMPTY).with(shop.getId(), null));
+            }
+            if (hasLocation(shop)) {
+                next.put(shop.getTypeId(), next.getOrDefault(shop.getTypeId(), TypeGrid.EMPTY).with(shop.getId(), shop));
+                shopTypes.put(shop.getId(), shop.getTypeId());
+            } else if (shop.getTypeId() != null && next.containsKey(shop.getTypeId())) {
+                next.put(shop.getTypeId(), next.get(shop.getTypeId()).with(shop.getId(), null));
+            }
+            grids = next;
+        }
+    }
+
+    /**
+     * 查询半径内离用户最近的 from + size 个商铺，返回其中 [from, from + size) 这一页
+     */
+    public List<ShopGeoQueryEngine.NearbyShop> search(Integer typeId, double x, double y, double radius, int from, int size) {
+        List<ShopGeoQueryEngine.NearbyShop> nearest = nearest(typeId.longValue(), x, y, radius, from + size);
+        if (nearest.size() <= from) {
+            return Collections.emptyList();
+        }
+        return nearest.subList(from, nearest.size());
+    }
+
+    /**
+     * 半径 + kNN 查询
+     *
+     * @param typeId 商铺类型
+     * @param x      用户经度
+     * @param y      用户纬度
+     * @param radius 搜索半径（米）
+     * @param k      最多返回的商铺个数
+     * @return 按距离升序的商铺及距离
+     */
+    public List<ShopGeoQueryEngine.NearbyShop> nearest(long typeId, double x, double y, double radius, int k) {
+        TypeGrid grid = grids.get(typeId);
+        if (grid == null || grid.size() == 0 || k <= 0) {
+            return Collections.emptyList();
+        }
+        int step = GeoHashUtils.stepForRadius(radius, y);
+        int shift = 2 * (GeoHashUtils.MAX_STEP - step);
+        long cells = 1L << step;
+        long lonIndex = GeoHashUtils.lonIndex(x, step);
+        long latIndex = GeoHashUtils.latIndex(y, step);
+        // 3x3 网格，经度方向首尾相接，纬度方向越界的网格直接跳过；精度很低时相邻网格可能重合，需要去重
+        Set<Long> cellHashes = new HashSet<>();
+        for (long dLon = -1; dLon <= 1; dLon++) {
+            for (long dLat = -1; dLat <= 1; dLat++) {
+                long lat = latIndex + dLat;
+                if (lat < 0 || lat >= cells) {
+                    continue;
+                }
+                long lon = Math.floorMod(lonIndex + dLon, cells);
+                cellHashes.add(GeoHashUtils.interleave(lon, lat, step));
+            }
+        }
+        // 候选结果只保存下标和距离，最后再创建返回对象
+        int[] hitIndexes = new int[16];
+        double[] hitDistances = new double[16];
+        int hits = 0;
+        for (long cellHash : cellHashes) {
+            int end = grid.lowerBound((cellHash + 1) << shift);
+            for (int i = grid.lowerBound(cellHash << shift); i < end; i++) {
+                double d = GeoHashUtils.distance(x, y, grid.xs[i], grid.ys[i]);
+                if (d > radius) {
+                    continue;
+                }
+                if (hits == hitIndexes.length) {
+                    hitIndexes = Arrays.copyOf(hitIndexes, hits * 2);
+                    hitDistances = Arrays.copyOf(hitDistances, hits * 2);
+                }
+                hitIndexes[hits] = i;
+                hitDistances[hits] = d;
+                hits++;
+            }
+        }
+        Integer[] order = new Integer[hits];
+        for (int i = 0; i < hits; i++) {
+            order[i] = i;
+        }
+        double[] distances = hitDistances;
+        Arrays.sort(order, Comparator.comparingDouble(i -> distances[i]));
+        int n = Math.min(k, hits);
+        List<ShopGeoQueryEngine.NearbyShop> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(new ShopGeoQueryEngine.NearbyShop(grid.ids[hitIndexes[order[i]]], hitDistances[order[i]]));
+        }
+        return result;
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+}
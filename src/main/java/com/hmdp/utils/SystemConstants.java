@@ -5,4 +5,6 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    // 附近商铺的搜索半径，单位米
+    public static final double SHOP_NEARBY_RADIUS = 5000;
 }
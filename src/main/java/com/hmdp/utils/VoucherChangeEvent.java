@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 优惠券变更事件：新增普通券或秒杀券后由 VoucherServiceImpl 发布，
+ * 按店铺缓存优惠券数据的组件监听该事件，在事务提交后失效对应店铺的缓存。
+ */
+@Data
+@AllArgsConstructor
+public class VoucherChangeEvent {
+    /**
+     * 优惠券所属店铺
+     */
+    private Long shopId;
+
+    /**
+     * 变更的优惠券 id
+     */
+    private Long voucherId;
+}
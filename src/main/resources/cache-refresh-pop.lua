@@ -0,0 +1,25 @@
+-- 缓存定时刷新：取出逻辑过期时间不晚于指定时间的 key，并从刷新调度表中删除，多个节点同时执行也不会取到同一个 key
+-- 只返回上次写入之后被读过（有读命中标记）的 key，并清除标记；没人读的 key 只从调度表中删除，不再刷新
+-- 1.参数列表
+-- 1.1截止时间（epoch 毫秒）
+local deadline = ARGV[1]
+-- 1.2最多取出多少个
+local limit = tonumber(ARGV[2])
+
+-- 2.数据key
+-- 2.1刷新调度表，member 为缓存 key，score 为逻辑过期时间
+local scheduleKey = 'cache:refresh:schedule'
+-- 2.2读命中标记，member 为上次写入之后被读过的缓存 key
+local readKey = 'cache:refresh:read'
+
+-- 3.取出到期的 key 和对应的过期时间，只保留被读过的
+local items = redis.call('zrangebyscore', scheduleKey, '-inf', deadline, 'WITHSCORES', 'LIMIT', 0, limit)
+local due = {}
+for i = 1, #items, 2 do
+    redis.call('zrem', scheduleKey, items[i])
+    if redis.call('srem', readKey, items[i]) == 1 then
+        table.insert(due, items[i])
+        table.insert(due, items[i + 1])
+    end
+end
+return due
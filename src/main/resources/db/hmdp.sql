@@ -1274,11 +1274,24 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uniqe_key_voucher_user`(`voucher_id`, `user_id`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
 -- Records of tb_voucher_order
 -- ----------------------------
 
+-- ----------------------------
+-- Migration for existing tb_voucher_order
+-- 一人一单改由 (voucher_id, user_id) 唯一索引保证，voucher_id 在前，对账按 voucher_id 查询已下单用户时也能走这个索引。
+-- 已有数据的库执行下面的语句：先删除重复的订单（每个用户每张券保留最早的一条），再添加唯一索引；
+-- 已经按 (user_id, voucher_id) 建过 uniqe_key_user_voucher 的库，添加新索引后删除旧索引
+-- ----------------------------
+-- DELETE o1 FROM `tb_voucher_order` o1
+--   JOIN `tb_voucher_order` o2
+--     ON o1.`user_id` = o2.`user_id` AND o1.`voucher_id` = o2.`voucher_id` AND o1.`id` > o2.`id`;
+-- ALTER TABLE `tb_voucher_order` ADD UNIQUE INDEX `uniqe_key_voucher_user`(`voucher_id`, `user_id`) USING BTREE;
+-- ALTER TABLE `tb_voucher_order` DROP INDEX `uniqe_key_user_voucher`;
+
 SET FOREIGN_KEY_CHECKS = 1;
@@ -3,26 +3,83 @@
 local voucherId = ARGV[1]
 -- 1.2用户id
 local userId = ARGV[2]
+-- 1.3当前时间（毫秒）
+local now = tonumber(ARGV[3])
+-- 1.4订单id的高位（时间戳左移 32 位，十进制字符串），低 32 位是抢购成功后才自增的序列号
+local orderIdBase = ARGV[4]
+-- 1.5是否使用 Redis Stream 传输订单，'1' 表示使用
+local useStream = ARGV[5]
+-- 1.6订单处理结果的保存时间（秒）
+local resultTtl = tonumber(ARGV[6])
+-- 1.7订单序列号key，与 RedisIdWorker 相同的 inc:order:{yyyy:MM:dd}
+local orderSeqKey = ARGV[7]
 
 -- 2.数据key
 -- 2.1库存key
 local stockKey = 'seckill:stock:' .. voucherId
 -- 2.2订单key
 local orderKey = 'seckill:order:' .. voucherId
+-- 2.3活动时间key
+local scheduleKey = 'seckill:schedule:' .. voucherId
+-- 2.4订单消息流key
+local streamKey = 'stream:seckill:orders'
+-- 2.5用户 -> 订单id，对账补发时沿用客户端已经拿到的订单id
+local orderIdKey = 'seckill:order:id:' .. voucherId
+
+-- 订单id超过 2^53，Lua 的数字是双精度浮点数，不能直接相加，按十进制逐位加上序列号
+local function addDecimal(base, n)
+    local digits = {}
+    local carry = n
+    for i = #base, 1, -1 do
+        local d = tonumber(string.sub(base, i, i)) + carry
+        digits[i] = d % 10
+        carry = (d - d % 10) / 10
+    end
+    local result = table.concat(digits)
+    while carry > 0 do
+        result = (carry % 10) .. result
+        carry = (carry - carry % 10) / 10
+    end
+    return result
+end
 
 -- 3.脚本业务
--- 3.1判断库存是否充足
-if(tonumber(redis.call('get',stockKey)) <= 0)then
-    -- 3.2 库存不足 返回1
+-- 3.1判断活动时间，没有写入的字段不做限制
+local schedule = redis.call('hmget', scheduleKey, 'begin', 'end')
+if(schedule[1] and now < tonumber(schedule[1])) then
+    -- 活动尚未开始 返回3
+    return 3
+end
+if(schedule[2] and now > tonumber(schedule[2])) then
+    -- 活动已经结束 返回4
+    return 4
+end
+-- 3.2判断库存是否充足，库存尚未预热时同样视为库存不足
+local stock = tonumber(redis.call('get',stockKey))
+if(stock == nil or stock <= 0)then
+    -- 库存不足 返回1
     return 1
 end
---3.2判断用户是否下单
+--3.3判断用户是否下单
 if(redis.call('sismember',orderKey,userId) == 1) then
-    -- 3.3存在,说明是重复下单
+    -- 存在,说明是重复下单
     return 2
 end
 -- 3.4扣库存
 redis.call('incrby',stockKey,-1)
--- 3.5下单并保存用户
+-- 3.5生成订单id：只有抢购成功才自增序列号，售罄、重复下单、不在活动时间内的请求不占用序列号
+local orderSeq = redis.call('incr',orderSeqKey)
+local orderId = addDecimal(orderIdBase, orderSeq)
+-- 订单处理结果，先记下订单属于哪个用户，查询订单状态时据此校验
+local resultKey = 'seckill:result:' .. orderId
+-- 3.6下单并保存用户
 redis.call('sadd',orderKey,userId)
-return 0
\ No newline at end of file
+redis.call('hset',orderIdKey,userId,orderId)
+redis.call('hset',resultKey,'userId',userId)
+redis.call('expire',resultKey,resultTtl)
+-- 3.7发送订单消息到 Stream，与扣库存在同一个原子操作中完成；不按长度裁剪，已确认的消息由 SeckillStreamConsumer 定时裁掉
+if(useStream == '1') then
+    redis.call('xadd', streamKey, '*', 'id', orderId, 'userId', userId, 'voucherId', voucherId)
+end
+-- 成功时返回序列号左移 3 位（低 3 位为 0），调用方用 idBase | 序列号 得到同一个订单id
+return orderSeq * 8
@@ -0,0 +1,44 @@
+-- 秒杀排队：按固定速率放行，返回每张秒杀券的 {voucherId, admitted, seq}
+-- 放行进度按 Redis 中记录的上次放行时间计算，任意节点、任意频率调用结果都一样，不需要选主
+-- 1.参数列表
+-- 1.1当前时间（毫秒）
+local now = tonumber(ARGV[1])
+-- 1.2每秒放行的人数
+local rate = tonumber(ARGV[2])
+
+local activeKey = 'seckill:queue:active'
+local result = {}
+for _, voucherId in ipairs(redis.call('smembers', activeKey)) do
+    local queueKey = 'seckill:queue:' .. voucherId
+    local state = redis.call('hmget', queueKey, 'seq', 'admitted', 'last')
+    if(not state[1]) then
+        -- 排队数据已经过期
+        redis.call('srem', activeKey, voucherId)
+    else
+        local seq = tonumber(state[1])
+        local admitted = tonumber(state[2])
+        local last = tonumber(state[3])
+        if(admitted >= seq) then
+            -- 队列已经放空，空闲的时间不累积放行额度，避免之后一次放进一大批
+            if(now > last) then
+                redis.call('hset', queueKey, 'last', now)
+            end
+        else
+            local quota = math.floor((now - last) * rate / 1000)
+            if(quota > 0) then
+                admitted = math.min(seq, admitted + quota)
+                if(admitted >= seq) then
+                    last = now
+                else
+                    -- 保留不足一人的零头时间
+                    last = last + math.floor(quota * 1000 / rate)
+                end
+                redis.call('hmset', queueKey, 'admitted', admitted, 'last', last)
+            end
+        end
+        table.insert(result, voucherId)
+        table.insert(result, admitted)
+        table.insert(result, seq)
+    end
+end
+return result
@@ -0,0 +1,34 @@
+-- 秒杀排队：领取排队号，同一用户重复领取返回原来的号
+-- 1.参数列表
+-- 1.1优惠卷id
+local voucherId = ARGV[1]
+-- 1.2用户id
+local userId = ARGV[2]
+-- 1.3开始放行的时间（毫秒），活动开始前排队的用户从活动开始时才放行
+local start = ARGV[3]
+-- 1.4排队数据的有效期（秒）
+local ttl = tonumber(ARGV[4])
+
+-- 2.数据key
+-- 2.1排队状态key：seq 已发出的最大排队号，admitted 已放行到的排队号，last 上次放行的时间
+local queueKey = 'seckill:queue:' .. voucherId
+-- 2.2排队号key：用户id -> 排队号
+local ticketKey = 'seckill:queue:ticket:' .. voucherId
+-- 2.3正在排队的秒杀券
+local activeKey = 'seckill:queue:active'
+
+-- 3.脚本业务
+-- 3.1已经领过号
+local ticket = redis.call('hget', ticketKey, userId)
+if(ticket) then
+    return tonumber(ticket)
+end
+-- 3.2发新号
+ticket = redis.call('hincrby', queueKey, 'seq', 1)
+redis.call('hsetnx', queueKey, 'admitted', 0)
+redis.call('hsetnx', queueKey, 'last', start)
+redis.call('hset', ticketKey, userId, ticket)
+redis.call('expire', queueKey, ttl)
+redis.call('expire', ticketKey, ttl)
+redis.call('sadd', activeKey, voucherId)
+return ticket
@@ -0,0 +1,106 @@
+package com.hmdp.rebbitmq;
+
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 验证秒杀订单消息的 33 字节二进制布局 [version:1][id:8][userId:8][voucherId:8][timestamp:8]（大端序）、
+ * 编解码往返，以及按消息体区分二进制消息与升级前的 JSON 消息。
+ */
+class SeckillOrderMessageConverterTest {
+
+    @Test
+    void encodeWritesFixedBigEndianLayout() {
+        byte[] body = SeckillOrderMessageConverter.encode(order(0x0102030405060708L, 0x1112131415161718L, 0x2122232425262728L),
+                0x3132333435363738L);
+
+        assertEquals(SeckillOrderMessageConverter.LENGTH, body.length);
+        assertEquals(33, body.length);
+        assertArrayEquals(new byte[]{
+                1,
+                0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08,
+                0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x18,
+                0x21, 0x22, 0x23, 0x24, 0x25, 0x26, 0x27, 0x28,
+                0x31, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37, 0x38}, body);
+    }
+
+    @Test
+    void decodeRoundTripsEncodedOrder() {
+        // RedisIdWorker 生成的订单 id 占满高位，也要原样还原
+        long orderId = (1234567L << 32) | 0xFFFFFFFFL;
+        long timestamp = 1700000000123L;
+        VoucherOrder decoded = SeckillOrderMessageConverter.decode(
+                SeckillOrderMessageConverter.encode(order(orderId, 1010L, 7L), timestamp));
+
+        assertEquals(orderId, decoded.getId().longValue());
+        assertEquals(1010L, decoded.getUserId().longValue());
+        assertEquals(7L, decoded.getVoucherId().longValue());
+        assertEquals(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()), decoded.getCreateTime());
+    }
+
+    @Test
+    void decodeRejectsShortBodiesAndUnknownVersions() {
+        byte[] body = SeckillOrderMessageConverter.encode(order(1L, 2L, 3L), 4L);
+        byte[] shortBody = new byte[SeckillOrderMessageConverter.LENGTH - 1];
+        System.arraycopy(body, 0, shortBody, 0, shortBody.length);
+        assertThrows(MessageConversionException.class, () -> SeckillOrderMessageConverter.decode(shortBody));
+        assertThrows(MessageConversionException.class, () -> SeckillOrderMessageConverter.decode(null));
+
+        body[0] = 2;
+        assertThrows(MessageConversionException.class, () -> SeckillOrderMessageConverter.decode(body));
+    }
+
+    @Test
+    void binaryBodiesAreDistinguishedFromLegacyJson() {
+        assertTrue(SeckillOrderMessageConverter.isBinary(SeckillOrderMessageConverter.encode(order(1L, 2L, 3L), 4L)));
+        // 分区之后、二进制编码之前写入发件箱的 JSON 消息体带有 voucherId，但不是二进制格式
+        byte[] json = "{\"id\":1,\"userId\":2,\"voucherId\":3}".getBytes(StandardCharsets.UTF_8);
+        assertFalse(SeckillOrderMessageConverter.isBinary(json));
+        // 恰好 33 字节的 JSON 同样按首字节区分
+        byte[] json33 = "{\"id\":10000,\"userId\":1,\"voucher\":1}".substring(0, 33).getBytes(StandardCharsets.UTF_8);
+        assertEquals(33, json33.length);
+        assertFalse(SeckillOrderMessageConverter.isBinary(json33));
+        assertFalse(SeckillOrderMessageConverter.isBinary(null));
+    }
+
+    @Test
+    void converterUsesBinaryContentTypeOnlyForOrders() {
+        SeckillOrderMessageConverter converter = new SeckillOrderMessageConverter();
+        Message message = converter.toMessage(order(5L, 6L, 7L), new MessageProperties());
+        assertEquals(SeckillOrderMessageConverter.CONTENT_TYPE, message.getMessageProperties().getContentType());
+        assertEquals(33, message.getBody().length);
+        VoucherOrder decoded = (VoucherOrder) converter.fromMessage(message);
+        assertEquals(5L, decoded.getId().longValue());
+
+        // 发件箱重发时直接包装已编码的消息体
+        Message resent = SeckillOrderMessageConverter.toMessage(message.getBody());
+        assertEquals(SeckillOrderMessageConverter.CONTENT_TYPE, resent.getMessageProperties().getContentType());
+        assertArrayEquals(message.getBody(), resent.getBody());
+
+        // 其它类型交给 SimpleMessageConverter，按文本往返
+        Message text = converter.toMessage("{\"id\":1}", new MessageProperties());
+        assertEquals("{\"id\":1}", converter.fromMessage(text));
+    }
+
+    private static VoucherOrder order(long id, long userId, long voucherId) {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(id);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        return voucherOrder;
+    }
+}
@@ -0,0 +1,139 @@
+package com.hmdp.rebbitmq;
+
+import com.hmdp.utils.ExecutorRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 在临时文件上验证 SeckillOutbox：刷盘后才完成 append，重启后重放未确认的消息，确认记录足够多时重写文件。
+ */
+class SeckillOutboxTest {
+
+    private final List<ExecutorRegistry> registries = new ArrayList<>();
+    private Path dir;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (ExecutorRegistry registry : registries) {
+            registry.shutdown();
+        }
+        if (dir != null) {
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void unconfirmedMessagesAreReplayedAfterRestart() throws Exception {
+        Path file = tempFile();
+        SeckillOutbox outbox = open(file, 10000);
+        SeckillOutbox.Entry first = outbox.append(1L, 10L, bytes("m1")).join();
+        outbox.append(2L, 10L, bytes("m2")).join();
+        outbox.append(3L, 20L, bytes("m3")).join();
+        outbox.confirm(2L);
+        // append 完成时记录已经在文件中
+        assertTrue(lines(file).contains("P 1 10 " + Base64.getEncoder().encodeToString(bytes("m1"))));
+        assertEquals(1L, first.getOrderId());
+        outbox.close();
+
+        SeckillOutbox restarted = open(file, 10000);
+        Map<Long, SeckillOutbox.Entry> pending = pendingById(restarted);
+        assertEquals(2, pending.size());
+        assertEquals(10L, pending.get(1L).getVoucherId().longValue());
+        assertArrayEquals(bytes("m1"), pending.get(1L).getMessage());
+        assertEquals(20L, pending.get(3L).getVoucherId().longValue());
+        assertArrayEquals(bytes("m3"), pending.get(3L).getMessage());
+        // 恢复的消息还没有发送过，定时任务会立即重发
+        assertEquals(0L, pending.get(1L).getSentAt());
+        restarted.close();
+    }
+
+    @Test
+    void legacyAndTruncatedRecordsAreHandledOnReplay() throws Exception {
+        Path file = tempFile();
+        String legacy = Base64.getEncoder().encodeToString(bytes("{\"id\":4}"));
+        Files.write(file, Arrays.asList(
+                "P 4 " + legacy,
+                "P 5 30 " + Base64.getEncoder().encodeToString(bytes("m5")),
+                "C 5",
+                // 进程崩溃时只写了一半的记录
+                "P 6 3"), StandardCharsets.UTF_8);
+
+        SeckillOutbox outbox = open(file, 10000);
+        Map<Long, SeckillOutbox.Entry> pending = pendingById(outbox);
+        assertEquals(1, pending.size());
+        assertNull(pending.get(4L).getVoucherId());
+        assertArrayEquals(bytes("{\"id\":4}"), pending.get(4L).getMessage());
+        // 启动时重写文件，只保留未确认的消息
+        assertEquals(Arrays.asList("P 4 " + legacy), lines(file));
+        outbox.close();
+    }
+
+    @Test
+    void confirmedRecordsAreCompactedAway() throws Exception {
+        Path file = tempFile();
+        SeckillOutbox outbox = open(file, 2);
+        outbox.append(1L, 10L, bytes("m1")).join();
+        outbox.append(2L, 10L, bytes("m2")).join();
+        outbox.append(3L, 10L, bytes("m3")).join();
+        outbox.confirm(1L);
+        outbox.confirm(2L);
+        outbox.close();
+
+        assertEquals(Arrays.asList("P 3 10 " + Base64.getEncoder().encodeToString(bytes("m3"))), lines(file));
+        assertEquals(1, pendingById(open(file, 2)).size());
+    }
+
+    private SeckillOutbox open(Path file, int compactThreshold) throws Exception {
+        ExecutorRegistry registry = new ExecutorRegistry();
+        registries.add(registry);
+        SeckillOutbox outbox = new SeckillOutbox();
+        ReflectionTestUtils.setField(outbox, "file", file.toString());
+        ReflectionTestUtils.setField(outbox, "compactThreshold", compactThreshold);
+        ReflectionTestUtils.setField(outbox, "queueCapacity", 100);
+        ReflectionTestUtils.setField(outbox, "executorRegistry", registry);
+        outbox.init();
+        return outbox;
+    }
+
+    private Path tempFile() throws Exception {
+        dir = Files.createTempDirectory("seckill-outbox");
+        return dir.resolve("outbox.log");
+    }
+
+    private static Map<Long, SeckillOutbox.Entry> pendingById(SeckillOutbox outbox) {
+        Map<Long, SeckillOutbox.Entry> pending = new HashMap<>();
+        for (SeckillOutbox.Entry entry : outbox.pending()) {
+            pending.put(entry.getOrderId(), entry);
+        }
+        return pending;
+    }
+
+    private static List<String> lines(Path file) throws Exception {
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
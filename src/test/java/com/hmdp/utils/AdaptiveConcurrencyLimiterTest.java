@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用离散事件模拟验证 AdaptiveConcurrencyLimiter：
+ * 后端同时能处理 capacity 个请求，延迟为 base 毫秒；处理中的请求超过 capacity 后按比例排队，延迟 = base × 处理中请求数 / capacity。
+ * 每毫秒到达 20 个请求（远超后端处理能力），模拟时间按毫秒推进，结果是确定的。
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final int ARRIVALS_PER_MILLI = 20;
+
+    @Test
+    void limitConvergesNearCapacityAndKeepsP99Bounded() {
+        Backend backend = new Backend(newLimiter(), 50, 10);
+        backend.run(20000);
+        backend.resetLatencies();
+        backend.run(10000);
+
+        int limit = backend.limiter.getLimit();
+        assertTrue(limit >= 50 && limit <= 150, "limit=" + limit);
+        // 没有限流时 p99 会随着到达速度无限增长，这里应保持在无负载延迟的 3 倍以内
+        assertTrue(backend.p99() <= 30, "p99=" + backend.p99());
+        assertTrue(backend.limiter.getShed() > 0);
+    }
+
+    @Test
+    void limitShrinksWhenBackendLatencyRises() {
+        Backend backend = new Backend(newLimiter(), 50, 10);
+        backend.run(20000);
+        int before = backend.limiter.getLimit();
+
+        // 后端处理能力下降（例如 MySQL 变慢），同样的并发下延迟上涨
+        backend.capacity = 20;
+        backend.run(10000);
+        backend.resetLatencies();
+        backend.run(10000);
+
+        int after = backend.limiter.getLimit();
+        assertTrue(after < before, "before=" + before + ", after=" + after);
+        assertTrue(after >= 20 && after <= 60, "limit=" + after);
+        assertTrue(backend.p99() <= 30, "p99=" + backend.p99());
+    }
+
+    @Test
+    void limitRecoversAfterNoLoadLatencyChanges() {
+        Backend backend = new Backend(newLimiter(), 50, 10);
+        backend.run(20000);
+
+        // 后端整体变慢，重新测量无负载 RTT 之后上限恢复到与处理能力相当的水平
+        backend.base = 30;
+        backend.run(10000);
+        backend.resetLatencies();
+        backend.run(10000);
+
+        int limit = backend.limiter.getLimit();
+        assertTrue(limit >= 50 && limit <= 150, "limit=" + limit);
+        assertTrue(backend.p99() <= 90, "p99=" + backend.p99());
+        assertEquals(30, backend.limiter.getNoLoadRttMillis(), 1);
+    }
+
+    @Test
+    void droppedRequestsBackOffMultiplicatively() {
+        AdaptiveConcurrencyLimiter limiter = newLimiter();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertTrue(!limiter.tryAcquire());
+        for (int i = 0; i < 20; i++) {
+            limiter.release(10_000_000L, true);
+        }
+        assertEquals(18, limiter.getLimit());
+        assertEquals(0, limiter.getInflight());
+        assertEquals(1, limiter.getShed());
+    }
+
+    private static AdaptiveConcurrencyLimiter newLimiter() {
+        return new AdaptiveConcurrencyLimiter(20, 4, 1000, 1.5, 0.2, 0.9, 10, 2000);
+    }
+
+    /**
+     * 注入延迟的后端：按完成时间排序的处理中请求
+     */
+    private static final class Backend {
+        final AdaptiveConcurrencyLimiter limiter;
+        int capacity;
+        long base;
+        long now;
+        int inflight;
+        // {完成时间, 开始时间}
+        final PriorityQueue<long[]> running = new PriorityQueue<>(Comparator.comparingLong(r -> r[0]));
+        final List<Long> latencies = new ArrayList<>();
+
+        Backend(AdaptiveConcurrencyLimiter limiter, int capacity, long base) {
+            this.limiter = limiter;
+            this.capacity = capacity;
+            this.base = base;
+        }
+
+        void run(long millis) {
+            long end = now + millis;
+            for (; now < end; now++) {
+                while (!running.isEmpty() && running.peek()[0] <= now) {
+                    long[] request = running.poll();
+                    inflight--;
+                    long latency = request[0] - request[1];
+                    limiter.release(latency * 1_000_000L, false);
+                    latencies.add(latency);
+                }
+                for (int i = 0; i < ARRIVALS_PER_MILLI; i++) {
+                    if (limiter.tryAcquire()) {
+                        inflight++;
+                        long latency = inflight <= capacity ? base : base * inflight / capacity;
+                        running.add(new long[]{now + latency, now});
+                    }
+                }
+            }
+        }
+
+        void resetLatencies() {
+            latencies.clear();
+        }
+
+        long p99() {
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            return sorted.get((int) (sorted.size() * 0.99));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 验证 GeoHashUtils 的网格计算：编码与交织一致、点落在自己的网格内、
+ * stepForRadius 选出的网格边长不小于半径（3x3 网格覆盖整个搜索圆），以及距离与 Redis GEO 一致。
+ * 随机点使用固定种子，结果是确定的。
+ */
+class GeoHashUtilsTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    void encodeInterleavesLonAndLatBits() {
+        // 经度在前：经度下标 0b10、纬度下标 0b01 交织为 0b1001
+        assertEquals(0b1001L, GeoHashUtils.interleave(0b10, 0b01, 2));
+        assertEquals(GeoHashUtils.interleave(GeoHashUtils.lonIndex(120.15, 10), GeoHashUtils.latIndex(30.28, 10), 10),
+                GeoHashUtils.encode(120.15, 30.28, 10));
+        // 低精度的 geohash 是高精度 geohash 的前缀
+        long fine = GeoHashUtils.encode(120.15, 30.28, GeoHashUtils.MAX_STEP);
+        long coarse = GeoHashUtils.encode(120.15, 30.28, 16);
+        assertEquals(coarse, fine >>> (2 * (GeoHashUtils.MAX_STEP - 16)));
+        // 边界值归入最后一个格子
+        assertEquals((1L << 8) - 1, GeoHashUtils.lonIndex(180, 8));
+        assertEquals(0L, GeoHashUtils.lonIndex(-180, 8));
+    }
+
+    @Test
+    void pointsLieWithinHalfDiagonalOfTheirCellCenter() {
+        for (int i = 0; i < 10000; i++) {
+            double lon = -180 + 360 * random.nextDouble();
+            double lat = -85 + 170 * random.nextDouble();
+            int step = 1 + random.nextInt(GeoHashUtils.MAX_STEP);
+            long lonIndex = GeoHashUtils.lonIndex(lon, step);
+            long latIndex = GeoHashUtils.latIndex(lat, step);
+            double d = GeoHashUtils.distance(lon, lat,
+                    GeoHashUtils.lonCenter(lonIndex, step), GeoHashUtils.latCenter(latIndex, step));
+            assertTrue(d <= GeoHashUtils.cellHalfDiagonal(latIndex, step) + 1e-6,
+                    "lon=" + lon + ", lat=" + lat + ", step=" + step);
+        }
+    }
+
+    @Test
+    void stepForRadiusKeepsCellsAtLeastRadiusWide() {
+        double[] radii = {50, 500, 5000, 50000};
+        for (double radius : radii) {
+            for (int i = 0; i < 1000; i++) {
+                double lon = -180 + 360 * random.nextDouble();
+                double lat = -80 + 160 * random.nextDouble();
+                int step = GeoHashUtils.stepForRadius(radius, lat);
+                // 从点出发向东、西、南、北各走 radius，最多跨出一个网格，3x3 网格一定能覆盖
+                double dLat = Math.toDegrees(radius / GeoHashUtils.EARTH_RADIUS_IN_METERS);
+                double dLon = dLat / Math.cos(Math.toRadians(Math.abs(lat) + dLat));
+                long latIndex = GeoHashUtils.latIndex(lat, step);
+                long lonIndex = GeoHashUtils.lonIndex(lon, step);
+                assertTrue(Math.abs(GeoHashUtils.latIndex(Math.min(lat + dLat, 89.9), step) - latIndex) <= 1);
+                assertTrue(Math.abs(GeoHashUtils.latIndex(Math.max(lat - dLat, -89.9), step) - latIndex) <= 1);
+                if (lon - dLon > -180 && lon + dLon < 180) {
+                    assertTrue(GeoHashUtils.lonIndex(lon + dLon, step) - lonIndex <= 1, "radius=" + radius + ", lat=" + lat);
+                    assertTrue(lonIndex - GeoHashUtils.lonIndex(lon - dLon, step) <= 1, "radius=" + radius + ", lat=" + lat);
+                }
+            }
+        }
+        // 半径越大网格越粗
+        assertTrue(GeoHashUtils.stepForRadius(50000, 30) < GeoHashUtils.stepForRadius(500, 30));
+    }
+
+    @Test
+    void distanceMatchesRedisGeo() {
+        assertEquals(0, GeoHashUtils.distance(120.15, 30.28, 120.15, 30.28), 1e-9);
+        // 纬度相差 1 度约 111.2 公里
+        assertEquals(Math.toRadians(1) * GeoHashUtils.EARTH_RADIUS_IN_METERS, GeoHashUtils.distance(120, 30, 120, 31), 1e-3);
+        // Redis GEODIST 的示例：Palermo 与 Catania 相距 166274.1516 米；Redis 按 52 位 geohash 保存坐标，误差在 1 米以内
+        assertEquals(166274.1516, GeoHashUtils.distance(13.361389, 38.115556, 15.087269, 37.502669), 1);
+        assertEquals(GeoHashUtils.distance(1, 2, 3, 4), GeoHashUtils.distance(3, 4, 1, 2), 1e-9);
+    }
+}
@@ -0,0 +1,170 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用进程内的 Redis 替身验证 RedisCircuitBreaker：替身可以注入延迟和故障，
+ * 延迟体现为推进模拟时钟而不是真的等待，结果是确定的。
+ */
+class RedisCircuitBreakerTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private final FakeRedis redis = new FakeRedis(clock);
+
+    @Test
+    void slowCallsOpenBreakerAndReadsServeLastKnownGood() {
+        RedisCircuitBreaker breaker = newBreaker(100);
+        redis.data.put("cache:shop:1", "v1");
+        assertEquals("v1", read(breaker, "cache:shop:1"));
+
+        // Redis 变慢：调用仍然成功，但连续 5 次超过 slow-call-millis 后熔断
+        redis.latencyMillis = 1000;
+        for (int i = 0; i < 5; i++) {
+            read(breaker, "cache:shop:1");
+        }
+        assertEquals(RedisCircuitBreaker.OPEN, breaker.getState());
+
+        // 熔断后不再访问 Redis，直接返回本地保存的旧数据，也不再等待
+        redis.data.put("cache:shop:1", "v2");
+        int calls = redis.calls.get();
+        long before = clock.get();
+        for (int i = 0; i < 100; i++) {
+            assertEquals("v1", read(breaker, "cache:shop:1"));
+        }
+        assertEquals(calls, redis.calls.get());
+        assertEquals(before, clock.get());
+        assertEquals(100L, breaker.stats().get("localHits"));
+    }
+
+    @Test
+    void dbFallbackIsRateLimitedWhileOpen() {
+        RedisCircuitBreaker breaker = newBreaker(1);
+        open(breaker);
+
+        AtomicInteger dbQueries = new AtomicInteger();
+        assertEquals("db-1", breaker.read("cache:shop:1", () -> redis.get("cache:shop:1"),
+                () -> breaker.fallbackToDb(() -> "db-" + dbQueries.incrementAndGet())));
+        // 同一秒内第二次查库被限速，本地也没有这条数据
+        assertThrows(RedisCircuitBreaker.UnavailableException.class, () -> breaker.read("cache:shop:2",
+                () -> redis.get("cache:shop:2"), () -> breaker.fallbackToDb(() -> "db-" + dbQueries.incrementAndGet())));
+        assertEquals(1, dbQueries.get());
+        assertEquals(1L, breaker.stats().get("dbRejected"));
+    }
+
+    @Test
+    void probeClosesBreakerOnlyAfterRedisRecovers() {
+        RedisCircuitBreaker breaker = newBreaker(100);
+        open(breaker);
+
+        // 未满 open-millis 不探测
+        breaker.probe();
+        assertEquals(0, redis.pings.get());
+
+        // Redis 仍然故障，探测失败，继续熔断并重新计时
+        clock.addAndGet(5000);
+        breaker.probe();
+        assertEquals(1, redis.pings.get());
+        assertEquals(RedisCircuitBreaker.OPEN, breaker.getState());
+
+        // PING 成功但仍然很慢，不恢复
+        redis.down = false;
+        redis.latencyMillis = 1000;
+        clock.addAndGet(5000);
+        breaker.probe();
+        assertEquals(RedisCircuitBreaker.OPEN, breaker.getState());
+
+        // 延迟恢复正常后关闭熔断，读请求重新访问 Redis
+        redis.latencyMillis = 0;
+        clock.addAndGet(5000);
+        breaker.probe();
+        assertEquals(RedisCircuitBreaker.CLOSED, breaker.getState());
+        redis.data.put("cache:shop:1", "fresh");
+        assertEquals("fresh", read(breaker, "cache:shop:1"));
+    }
+
+    @Test
+    void failuresFallBackAndWritesAreSkippedWhileOpen() {
+        RedisCircuitBreaker breaker = newBreaker(100);
+        redis.down = true;
+        for (int i = 0; i < 4; i++) {
+            assertNull(read(breaker, "cache:shop:1"));
+            assertEquals(RedisCircuitBreaker.CLOSED, breaker.getState());
+        }
+        assertNull(read(breaker, "cache:shop:1"));
+        assertEquals(RedisCircuitBreaker.OPEN, breaker.getState());
+
+        int calls = redis.calls.get();
+        breaker.write(() -> redis.set("cache:shop:1", "v"));
+        assertEquals(calls, redis.calls.get());
+        Map<String, Object> stats = breaker.stats();
+        assertEquals(5L, stats.get("failures"));
+        assertEquals(1L, stats.get("opens"));
+    }
+
+    private RedisCircuitBreaker newBreaker(double dbFallbackPerSecond) {
+        return new RedisCircuitBreaker(5, 500, 5000, 1000, 3600, dbFallbackPerSecond, redis::ping, clock::get);
+    }
+
+    private String read(RedisCircuitBreaker breaker, String key) {
+        return breaker.read(key, () -> redis.get(key), null);
+    }
+
+    private void open(RedisCircuitBreaker breaker) {
+        redis.down = true;
+        for (int i = 0; i < 5; i++) {
+            read(breaker, "cache:open");
+        }
+        assertTrue(breaker.isOpen());
+    }
+
+    /**
+     * 进程内的 Redis 替身：可以注入延迟（推进模拟时钟）和故障（抛出异常，相当于连接失败或命令超时）
+     */
+    private static final class FakeRedis {
+        final Map<String, String> data = new ConcurrentHashMap<>();
+        final AtomicLong clock;
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger pings = new AtomicInteger();
+        volatile long latencyMillis;
+        volatile boolean down;
+
+        FakeRedis(AtomicLong clock) {
+            this.clock = clock;
+        }
+
+        String get(String key) {
+            calls.incrementAndGet();
+            await();
+            return data.get(key);
+        }
+
+        void set(String key, String value) {
+            calls.incrementAndGet();
+            await();
+            data.put(key, value);
+        }
+
+        boolean ping() {
+            pings.incrementAndGet();
+            await();
+            return true;
+        }
+
+        private void await() {
+            if (down) {
+                throw new IllegalStateException("Redis command timed out");
+            }
+            clock.addAndGet(latencyMillis);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 验证 ShopSearchIndex 的 n-gram 匹配、相关度排序，快照文件写入后重新加载得到相同的检索结果和水位线，
+ * 以及加载快照后去掉已删除的商铺。
+ * 不经过 Spring，直接调用 index 建立索引。
+ */
+class ShopSearchIndexTest {
+
+    @Test
+    void ngramsMatchNameAreaAndAddressIgnoringCaseAndBlanks() {
+        ShopSearchIndex index = newIndex();
+
+        assertEquals(Collections.singletonList(1L), index.search("颜悦", null, false, 0, 10).getIds());
+        assertEquals(Collections.singletonList(2L), index.search("ktv", null, false, 0, 10).getIds());
+        // 关键字中的空白被忽略，按商圈和地址同样能搜到
+        assertEquals(Collections.singletonList(1L), index.search("运河 上街", null, false, 0, 10).getIds());
+        assertEquals(Collections.singletonList(2L), index.search("拱墅", null, false, 0, 10).getIds());
+        // 单字查询走 1-gram
+        assertEquals(3, index.search("色", null, false, 0, 10).getTotal());
+        assertEquals(0, index.search("不存在", null, false, 0, 10).getTotal());
+        assertNull(index.search("  ", null, false, 0, 10));
+    }
+
+    @Test
+    void resultsAreRankedAndFiltered() {
+        ShopSearchIndex index = newIndex();
+
+        // 名称以关键字开头 > 名称包含关键字 > 只有地址包含；同分时名称短的在前
+        ShopSearchIndex.SearchPage page = index.search("悦色", null, false, 0, 10);
+        assertEquals(3, page.getTotal());
+        assertEquals(Arrays.asList(3L, 1L, 4L), page.getIds());
+        // 输入联想只要名称以关键字开头的
+        assertEquals(Collections.singletonList(3L), index.search("悦色", null, true, 0, 10).getIds());
+        // 按类型过滤、分页
+        assertEquals(Collections.singletonList(1L), index.search("悦色", 1L, false, 0, 10).getIds());
+        page = index.search("悦色", null, false, 1, 1);
+        assertEquals(3, page.getTotal());
+        assertEquals(Collections.singletonList(1L), page.getIds());
+    }
+
+    @Test
+    void reindexingReplacesOldGrams() {
+        ShopSearchIndex index = newIndex();
+        index.index(shop(2L, 2L, "星空 KTV", "拱墅区", "莫干山路 88 号").setName("星空酒吧"));
+
+        assertEquals(0, index.search("ktv", null, false, 0, 10).getTotal());
+        assertEquals(Collections.singletonList(2L), index.search("酒吧", null, false, 0, 10).getIds());
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    void snapshotRoundTripKeepsSearchResults() throws Exception {
+        Path file = Files.createTempFile("shop-index", ".bin");
+        try {
+            ShopSearchIndex index = newIndex();
+            ReflectionTestUtils.setField(index, "indexFile", file.toString());
+            LocalDateTime watermark = LocalDateTime.of(2024, 5, 1, 12, 30, 15);
+            index.saveSnapshot(watermark);
+
+            ShopSearchIndex loaded = new ShopSearchIndex();
+            ReflectionTestUtils.setField(loaded, "indexFile", file.toString());
+            ShopSearchIndex.Snapshot snapshot = loaded.loadSnapshot();
+            assertNotNull(snapshot);
+            // 水位线是数据库给出的 update_time，原样保存，不经过本地时钟和时区换算
+            assertEquals(watermark, snapshot.watermark);
+            assertEquals(index.size(), loaded.size());
+            for (String keyword : Arrays.asList("悦色", "ktv", "运河上街", "色", "拱墅")) {
+                assertEquals(index.search(keyword, null, false, 0, 10).getIds(),
+                        loaded.search(keyword, null, false, 0, 10).getIds(), keyword);
+            }
+            // 类型随快照保存，没有类型的商铺加载后仍然没有类型
+            assertEquals(Collections.singletonList(1L), loaded.search("悦色", 1L, false, 0, 10).getIds());
+            assertEquals(1, loaded.search("咖啡", null, false, 0, 10).getTotal());
+            assertEquals(0, loaded.search("咖啡", 1L, false, 0, 10).getTotal());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void emptyTableSnapshotHasNoWatermark() throws Exception {
+        Path file = Files.createTempFile("shop-index", ".bin");
+        try {
+            ShopSearchIndex index = new ShopSearchIndex();
+            ReflectionTestUtils.setField(index, "indexFile", file.toString());
+            index.saveSnapshot(null);
+            ShopSearchIndex.Snapshot snapshot = index.loadSnapshot();
+            assertNotNull(snapshot);
+            assertNull(snapshot.watermark);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void shopsDeletedAfterSnapshotAreRemoved() {
+        ShopSearchIndex index = newIndex();
+
+        assertEquals(2, index.retainOnly(new HashSet<>(Arrays.asList(1L, 3L, 99L))));
+        assertEquals(2, index.size());
+        assertEquals(0, index.search("ktv", null, false, 0, 10).getTotal());
+        // 只剩下名称和地址含"悦色"的 1、3
+        assertEquals(Arrays.asList(3L, 1L), index.search("悦色", null, false, 0, 10).getIds());
+        assertEquals(0, index.search("书店", null, false, 0, 10).getTotal());
+    }
+
+    @Test
+    void corruptSnapshotFallsBackToFullBuild() throws Exception {
+        Path file = Files.createTempFile("shop-index", ".bin");
+        try {
+            Files.write(file, "not a snapshot".getBytes(StandardCharsets.UTF_8));
+            ShopSearchIndex index = new ShopSearchIndex();
+            ReflectionTestUtils.setField(index, "indexFile", file.toString());
+            assertNull(index.loadSnapshot());
+            assertEquals(0, index.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static ShopSearchIndex newIndex() {
+        ShopSearchIndex index = new ShopSearchIndex();
+        index.index(shop(1L, 1L, "茶颜悦色(运河上街店)", "运河上街", "台州路 2 号"));
+        index.index(shop(2L, 2L, "星空 KTV", "拱墅区", "莫干山路 88 号"));
+        index.index(shop(3L, null, "悦色咖啡", "西湖区", "文三路 1 号"));
+        index.index(shop(4L, 2L, "书店", "滨江区", "悦色大厦 3 层"));
+        return index;
+    }
+
+    private static Shop shop(Long id, Long typeId, String name, String area, String address) {
+        return new Shop().setId(id).setTypeId(typeId).setName(name).setArea(area).setAddress(address);
+    }
+}
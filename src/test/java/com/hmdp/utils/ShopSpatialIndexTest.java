@@ -0,0 +1,124 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 把 ShopSpatialIndex 的半径 + kNN 查询与暴力计算（逐个计算距离再排序）的结果比较。
+ * 商铺通过 ShopChangeEvent 写入索引，不经过数据库；随机数使用固定种子，结果是确定的。
+ */
+class ShopSpatialIndexTest {
+
+    private static final double CENTER_X = 120.15;
+    private static final double CENTER_Y = 30.28;
+
+    private final Random random = new Random(7);
+
+    @Test
+    void radiusAndKnnMatchBruteForce() {
+        ShopSpatialIndex index = newIndex();
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= 2000; id++) {
+            // 约 ±10 公里范围内随机分布，分两个类型
+            Shop shop = shop(id, id % 2 + 1, CENTER_X + (random.nextDouble() - 0.5) * 0.2,
+                    CENTER_Y + (random.nextDouble() - 0.5) * 0.2);
+            shops.add(shop);
+            add(index, shop);
+        }
+        double[] radii = {100, 1000, 3000, 20000};
+        for (int q = 0; q < 200; q++) {
+            double x = CENTER_X + (random.nextDouble() - 0.5) * 0.2;
+            double y = CENTER_Y + (random.nextDouble() - 0.5) * 0.2;
+            double radius = radii[q % radii.length];
+            long typeId = q % 2 + 1;
+            assertSameResult(bruteForce(shops, typeId, x, y, radius, 10), index.nearest(typeId, x, y, radius, 10));
+        }
+    }
+
+    @Test
+    void neighborCellsAcrossTheAntimeridianAreSearched() {
+        ShopSpatialIndex index = newIndex();
+        Shop east = shop(1L, 1L, 179.9995, 0.0);
+        Shop west = shop(2L, 1L, -179.9995, 0.0);
+        add(index, east);
+        add(index, west);
+        // 两个商铺相距约 111 米，分别在经度 ±180 两侧的网格中
+        List<ShopGeoQueryEngine.NearbyShop> result = index.nearest(1L, 179.9999, 0.0, 200, 10);
+        assertEquals(2, result.size());
+        assertEquals(1L, result.get(0).getId());
+        assertEquals(2L, result.get(1).getId());
+    }
+
+    @Test
+    void shopChangesMoveAndRemoveEntries() {
+        ShopSpatialIndex index = newIndex();
+        add(index, shop(1L, 1L, CENTER_X, CENTER_Y));
+        add(index, shop(2L, 1L, CENTER_X + 0.001, CENTER_Y));
+        assertEquals(2, index.nearest(1L, CENTER_X, CENTER_Y, 500, 10).size());
+
+        // 换了类型：从旧类型中移除
+        add(index, shop(2L, 2L, CENTER_X + 0.001, CENTER_Y));
+        assertEquals(1, index.nearest(1L, CENTER_X, CENTER_Y, 500, 10).size());
+        assertEquals(1, index.nearest(2L, CENTER_X, CENTER_Y, 500, 10).size());
+
+        // 搬到半径之外
+        add(index, shop(1L, 1L, CENTER_X + 0.1, CENTER_Y));
+        assertTrue(index.nearest(1L, CENTER_X, CENTER_Y, 500, 10).isEmpty());
+
+        // 分页：from 超过结果数时返回空页
+        assertEquals(1, index.search(2, CENTER_X, CENTER_Y, 500, 0, 5).size());
+        assertTrue(index.search(2, CENTER_X, CENTER_Y, 500, 1, 5).isEmpty());
+    }
+
+    private static ShopSpatialIndex newIndex() {
+        ShopSpatialIndex index = new ShopSpatialIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+        return index;
+    }
+
+    private static void add(ShopSpatialIndex index, Shop shop) {
+        index.onShopChange(new ShopChangeEvent(null, shop));
+    }
+
+    private static Shop shop(Long id, Long typeId, double x, double y) {
+        return new Shop().setId(id).setTypeId(typeId).setX(x).setY(y);
+    }
+
+    private static List<ShopGeoQueryEngine.NearbyShop> bruteForce(List<Shop> shops, long typeId, double x, double y,
+                                                                   double radius, int k) {
+        List<ShopGeoQueryEngine.NearbyShop> result = new ArrayList<>();
+        for (Shop shop : shops) {
+            double d = GeoHashUtils.distance(x, y, shop.getX(), shop.getY());
+            if (shop.getTypeId() == typeId && d <= radius) {
+                result.add(new ShopGeoQueryEngine.NearbyShop(shop.getId(), d));
+            }
+        }
+        result.sort(Comparator.comparingDouble(ShopGeoQueryEngine.NearbyShop::getDistance));
+        return result.size() > k ? result.subList(0, k) : result;
+    }
+
+    private static void assertSameResult(List<ShopGeoQueryEngine.NearbyShop> expected,
+                                         List<ShopGeoQueryEngine.NearbyShop> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getDistance(), actual.get(i).getDistance(), 1e-6);
+        }
+        List<Long> expectedIds = new ArrayList<>();
+        List<Long> actualIds = new ArrayList<>();
+        expected.forEach(s -> expectedIds.add(s.getId()));
+        actual.forEach(s -> actualIds.add(s.getId()));
+        Collections.sort(expectedIds);
+        Collections.sort(actualIds);
+        assertEquals(expectedIds, actualIds);
+    }
+}